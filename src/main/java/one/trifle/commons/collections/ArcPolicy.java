@@ -0,0 +1,113 @@
+package one.trifle.commons.collections;
+
+import java.util.Map;
+
+/**
+ * Adaptive Replacement Cache. Resident entries seen once are kept in T1 and
+ * entries seen at least twice in T2, both in the intrusive before/after list
+ * of the entries. The keys of entries evicted from T1 and T2 are remembered in
+ * the ghost lists B1 and B2, themselves {@link LruHashMap}s, and a miss that
+ * hits a ghost list shifts the target size {@code p} of T1 towards recency
+ * or frequency.
+ * <p>
+ * Each ghost list remembers up to {@code c} keys, where {@code c} is the
+ * maximum size of the map.
+ */
+final class ArcPolicy<K, V> implements EvictionPolicy<K, V> {
+    static final byte T1 = 0;
+    static final byte T2 = 1;
+
+    final EntryDeque<K, V> t1 = new EntryDeque<K, V>();
+    final EntryDeque<K, V> t2 = new EntryDeque<K, V>();
+    final LruHashMap<K, Boolean> b1;
+    final LruHashMap<K, Boolean> b2;
+    private int c;
+    /**
+     * Target size of T1.
+     */
+    int p;
+    private LruHashMap.PolicyEntry<K, V> inserted;
+    private boolean insertedFromB2;
+    private LruHashMap.Entry<K, V> victim;
+
+    ArcPolicy(int maximumSize) {
+        if (maximumSize < 0) throw new IllegalArgumentException();
+        c = maximumSize;
+        b1 = new LruHashMap<K, Boolean>(maximumSize);
+        b2 = new LruHashMap<K, Boolean>(maximumSize);
+    }
+
+    @Override
+    public void onInsert(Map.Entry<K, V> entry) {
+        LruHashMap.PolicyEntry<K, V> e = (LruHashMap.PolicyEntry<K, V>) entry;
+        inserted = e;
+        insertedFromB2 = false;
+        if (b1.remove(e.key) != null) {
+            p = Math.min(c, p + Math.max(b2.size() / (b1.size() + 1), 1));
+            e.queue = T2;
+            t2.linkFirst(e);
+        } else if (b2.remove(e.key) != null) {
+            p = Math.max(0, p - Math.max(b1.size() / (b2.size() + 1), 1));
+            insertedFromB2 = true;
+            e.queue = T2;
+            t2.linkFirst(e);
+        } else {
+            e.queue = T1;
+            t1.linkFirst(e);
+        }
+    }
+
+    @Override
+    public void onAccess(Map.Entry<K, V> entry) {
+        LruHashMap.PolicyEntry<K, V> e = (LruHashMap.PolicyEntry<K, V>) entry;
+        if (e.queue == T1) {
+            t1.unlink(e);
+            e.queue = T2;
+            t2.linkFirst(e);
+        } else {
+            t2.moveToFront(e);
+        }
+    }
+
+    @Override
+    public void onRemove(Map.Entry<K, V> entry) {
+        LruHashMap.PolicyEntry<K, V> e = (LruHashMap.PolicyEntry<K, V>) entry;
+        if (e.queue == T1) {
+            t1.unlink(e);
+            if (e == victim)
+                b1.put(e.key, Boolean.TRUE);
+        } else {
+            t2.unlink(e);
+            if (e == victim)
+                b2.put(e.key, Boolean.TRUE);
+        }
+        if (e == inserted)
+            inserted = null;
+        victim = null;
+    }
+
+    @Override
+    public void onEvictionEnd() {
+        inserted = null;
+        insertedFromB2 = false;
+    }
+
+    @Override
+    public void setMaximumSize(int maximumSize) {
+        c = maximumSize;
+        p = Math.min(p, c);
+        b1.setMaximumSize(maximumSize);
+        b2.setMaximumSize(maximumSize);
+    }
+
+    @Override
+    public Map.Entry<K, V> selectVictim() {
+        // the entry which caused the overflow is not counted, as ARC replaces before it inserts
+        int t1Size = t1.size - (inserted != null && inserted.queue == T1 ? 1 : 0);
+        if (t1Size > 0 && (t1Size > p || (insertedFromB2 && t1Size == p)) || t2.isEmpty())
+            victim = t1.last;
+        else
+            victim = t2.last;
+        return victim;
+    }
+}
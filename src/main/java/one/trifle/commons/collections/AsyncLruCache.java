@@ -0,0 +1,140 @@
+package one.trifle.commons.collections;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A bounded cache of asynchronously computed values, evicting the least
+ * recently used entries.
+ * <p>
+ * The cache stores {@link CompletableFuture}s in a
+ * {@link ConcurrentLruHashMap}, so a load in flight is cached as well:
+ * concurrent callers missing the same key share one future and one
+ * invocation of the loader. Loads run on the executor given at construction,
+ * never on the calling thread, which makes the cache safe to use from event
+ * loops; a virtual-thread-per-task executor suits blocking loaders. A future
+ * which completes exceptionally or with {@code null} is removed from the
+ * cache, so the next caller loads the key again.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public class AsyncLruCache<K, V> {
+    private final ConcurrentLruHashMap<K, CompletableFuture<V>> map;
+    private final Executor executor;
+
+    /**
+     * Creates a new, empty cache with the default concurrency level.
+     *
+     * @param size     the maximum number of entries, including loads in flight
+     * @param executor runs the loads
+     */
+    public AsyncLruCache(int size, Executor executor) {
+        this(new ConcurrentLruHashMap<K, CompletableFuture<V>>(size), executor);
+    }
+
+    /**
+     * Creates a new, empty cache.
+     *
+     * @param size             the maximum number of entries, including loads in flight
+     * @param concurrencyLevel the estimated number of concurrently updating
+     *                         threads, used to pick the number of segments
+     * @param executor         runs the loads
+     */
+    public AsyncLruCache(int size, int concurrencyLevel, Executor executor) {
+        this(new ConcurrentLruHashMap<K, CompletableFuture<V>>(size, concurrencyLevel), executor);
+    }
+
+    AsyncLruCache(ConcurrentLruHashMap<K, CompletableFuture<V>> map, Executor executor) {
+        if (executor == null) throw new NullPointerException();
+        this.map = map;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the future value of the key, starting a load on the executor if
+     * the key is neither cached nor being loaded.
+     *
+     * @param key    the key
+     * @param loader computes the value if the key is missing
+     * @return the future value; it completes exceptionally if the load fails
+     */
+    public CompletableFuture<V> get(K key, CacheLoader<? super K, ? extends V> loader) {
+        if (key == null || loader == null) throw new NullPointerException();
+        CompletableFuture<V> future = map.get(key);
+        if (future != null)
+            return future;
+        CompletableFuture<V> created = new CompletableFuture<V>();
+        future = map.putIfAbsent(key, created);
+        if (future != null)
+            return future;
+        removeWhenFailed(key, created);
+        try {
+            executor.execute(() -> {
+                try {
+                    created.complete(loader.load(key));
+                } catch (Throwable e) {
+                    created.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) { // e.g. rejected by a shut down executor
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    /**
+     * Returns the future value of the key if it is cached or being loaded.
+     *
+     * @param key the key
+     * @return the future value, or {@code null} if there is none
+     */
+    public CompletableFuture<V> getIfPresent(K key) {
+        return map.get(key);
+    }
+
+    /**
+     * Caches the future value of the key, replacing the previous one. The
+     * entry is removed if the future fails or completes with {@code null}.
+     *
+     * @param key   the key
+     * @param value the future value
+     */
+    public void put(K key, CompletableFuture<V> value) {
+        map.put(key, value);
+        removeWhenFailed(key, value);
+    }
+
+    /**
+     * Removes the key from the cache. A load in flight is not cancelled, but
+     * its result is not cached.
+     *
+     * @param key the key
+     */
+    public void invalidate(K key) {
+        map.remove(key);
+    }
+
+    /**
+     * Removes every key from the cache.
+     */
+    public void invalidateAll() {
+        map.clear();
+    }
+
+    /**
+     * Returns the number of cached futures, including loads in flight.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return map.size();
+    }
+
+    private void removeWhenFailed(K key, CompletableFuture<V> future) {
+        future.whenComplete((value, error) -> {
+            if (error != null || value == null)
+                map.remove(key, future);
+        });
+    }
+}
@@ -0,0 +1,41 @@
+package one.trifle.commons.collections;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Computes the value of a key which is missing from a cache.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public interface CacheLoader<K, V> {
+    /**
+     * Computes the value of the key. Checked failures should be wrapped into
+     * unchecked exceptions, which are propagated to the callers waiting for
+     * the value.
+     *
+     * @param key the key whose value is missing
+     * @return the value, or {@code null} if the key has none
+     */
+    V load(K key);
+
+    /**
+     * Computes the values of the keys at once, for example with a single
+     * query to the backend. The default implementation loads the keys one by
+     * one; override it when the backend supports batches.
+     *
+     * @param keys the keys whose values are missing
+     * @return the values by key, without the keys which have none
+     */
+    default Map<K, V> loadAll(Set<? extends K> keys) {
+        Map<K, V> values = new HashMap<K, V>();
+        for (K key : keys) {
+            V value = load(key);
+            if (value != null)
+                values.put(key, value);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,190 @@
+package one.trifle.commons.collections;
+
+/**
+ * An immutable snapshot of the statistics of a cache: hits and misses of
+ * lookups, evictions and loads. Counts are never negative; a count that
+ * overflowed stays at {@link Long#MAX_VALUE}.
+ * <p>
+ * Statistics are only recorded once enabled on the map, for example with
+ * {@link LruHashMap#recordStats()}; until then every count is zero.
+ */
+public final class CacheStats {
+    private static final CacheStats EMPTY = new CacheStats(0, 0, 0, 0, 0, 0, 0);
+
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long evictionWeight;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long totalLoadTime;
+
+    /**
+     * @param hitCount         the number of lookups which found a value
+     * @param missCount        the number of lookups which found no value
+     * @param evictionCount    the number of entries evicted or expired
+     * @param evictionWeight   the total weight of the evicted entries
+     * @param loadSuccessCount the number of loads which completed normally
+     * @param loadFailureCount the number of loads which threw
+     * @param totalLoadTime    the time spent loading, in nanoseconds
+     * @throws IllegalArgumentException if any count is negative
+     */
+    public CacheStats(long hitCount, long missCount, long evictionCount, long evictionWeight,
+                      long loadSuccessCount, long loadFailureCount, long totalLoadTime) {
+        if (hitCount < 0 || missCount < 0 || evictionCount < 0 || evictionWeight < 0
+                || loadSuccessCount < 0 || loadFailureCount < 0 || totalLoadTime < 0)
+            throw new IllegalArgumentException();
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.evictionWeight = evictionWeight;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTime = totalLoadTime;
+    }
+
+    /**
+     * Returns statistics with all counts zero.
+     *
+     * @return the empty statistics
+     */
+    public static CacheStats empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @return the number of lookups, hits and misses
+     */
+    public long requestCount() {
+        return saturatedAdd(hitCount, missCount);
+    }
+
+    /**
+     * @return the number of lookups which found a value
+     */
+    public long hitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the ratio of hits to lookups, or {@code 1.0} if there were no
+     * lookups.
+     *
+     * @return the hit rate
+     */
+    public double hitRate() {
+        long requestCount = requestCount();
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    /**
+     * @return the number of lookups which found no value
+     */
+    public long missCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the ratio of misses to lookups, or {@code 0.0} if there were no
+     * lookups.
+     *
+     * @return the miss rate
+     */
+    public double missRate() {
+        long requestCount = requestCount();
+        return requestCount == 0 ? 0.0 : (double) missCount / requestCount;
+    }
+
+    /**
+     * Returns the number of entries evicted because the map overflowed or
+     * because they expired. Explicit removals are not counted.
+     *
+     * @return the number of evictions
+     */
+    public long evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns the total weight of the evicted entries; every entry of a map
+     * not bounded by weight weighs {@code 1}.
+     *
+     * @return the evicted weight
+     */
+    public long evictionWeight() {
+        return evictionWeight;
+    }
+
+    /**
+     * @return the number of loads, successful or not
+     */
+    public long loadCount() {
+        return saturatedAdd(loadSuccessCount, loadFailureCount);
+    }
+
+    /**
+     * @return the number of loads which completed normally
+     */
+    public long loadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    /**
+     * @return the number of loads which threw
+     */
+    public long loadFailureCount() {
+        return loadFailureCount;
+    }
+
+    /**
+     * @return the time spent loading, in nanoseconds
+     */
+    public long totalLoadTime() {
+        return totalLoadTime;
+    }
+
+    /**
+     * Returns the average time spent per load, in nanoseconds, or {@code 0.0}
+     * if there were no loads.
+     *
+     * @return the average load penalty
+     */
+    public double averageLoadPenalty() {
+        long loadCount = loadCount();
+        return loadCount == 0 ? 0.0 : (double) totalLoadTime / loadCount;
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        CacheStats that = (CacheStats) o;
+        return hitCount == that.hitCount && missCount == that.missCount
+                && evictionCount == that.evictionCount && evictionWeight == that.evictionWeight
+                && loadSuccessCount == that.loadSuccessCount && loadFailureCount == that.loadFailureCount
+                && totalLoadTime == that.totalLoadTime;
+    }
+
+    @Override
+    public int hashCode() {
+        long[] counts = {hitCount, missCount, evictionCount, evictionWeight,
+                loadSuccessCount, loadFailureCount, totalLoadTime};
+        int result = 1;
+        for (long count : counts)
+            result = 31 * result + (int) (count ^ (count >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{hitCount=" + hitCount + ", missCount=" + missCount
+                + ", evictionCount=" + evictionCount + ", evictionWeight=" + evictionWeight
+                + ", loadSuccessCount=" + loadSuccessCount + ", loadFailureCount=" + loadFailureCount
+                + ", totalLoadTime=" + totalLoadTime + '}';
+    }
+}
@@ -0,0 +1,294 @@
+package one.trifle.commons.collections;
+
+import one.trifle.commons.utils.Objects;
+
+import java.util.*;
+
+/**
+ * A least recently used map like {@link LruHashMap} without entry nodes:
+ * keys and values sit in parallel {@code Object[]} arrays, and the hashes,
+ * the bucket chains and the access list links are {@code int} indexes into
+ * parallel {@code int[]} arrays. Removed entries are
+ * reused through a free list, so after warm-up the map allocates nothing and
+ * an entry costs two references and four ints instead of a node object.
+ * <p>
+ * Reads and updates make an entry the most recently used, while
+ * {@link #containsKey} is a pure lookup. The entries are iterated in access
+ * order, most recently used first, so reading the map while it is iterated
+ * fails the iterator.
+ * <p>
+ * The arrays are allocated for the maximum size at construction. This class
+ * is not thread safe.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public class CompactLruHashMap<K, V> extends AbstractMap<K, V> {
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    private static final int NIL = -1;
+
+    private final int maxSize;
+    private final Object[] keys;
+    private final Object[] values;
+    private final int[] hashes;
+    /**
+     * The next entry in the bucket, or in the free list for free entries.
+     */
+    private final int[] next;
+    private final int[] before;
+    private final int[] after;
+    /**
+     * The first entry of every bucket.
+     */
+    private final int[] buckets;
+    private int size;
+    private int used;
+    private int root = NIL;
+    private int last = NIL;
+    private int free = NIL;
+    private transient int modCount;
+    private transient EntrySet entrySet;
+
+    /**
+     * @param size the maximum number of entries
+     * @throws IllegalArgumentException if the size is negative
+     */
+    public CompactLruHashMap(int size) {
+        if (size < 0) throw new IllegalArgumentException();
+        int capacity = 1;
+        while (capacity < size / LOAD_FACTOR && capacity < MAXIMUM_CAPACITY)
+            capacity <<= 1;
+        this.maxSize = size;
+        this.keys = new Object[size];
+        this.values = new Object[size];
+        this.hashes = new int[size];
+        this.next = new int[size];
+        this.before = new int[size];
+        this.after = new int[size];
+        this.buckets = new int[capacity];
+        Arrays.fill(buckets, NIL);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return getEntry(LruHashMap.spread(key.hashCode()), key) != NIL;
+    }
+
+    @Override
+    public V get(Object key) {
+        int entry = getEntry(LruHashMap.spread(key.hashCode()), key);
+        if (entry == NIL)
+            return null;
+        moveToFront(entry);
+        return valueAt(entry);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        if (key == null || value == null) throw new NullPointerException();
+        int hash = LruHashMap.spread(key.hashCode());
+        int entry = getEntry(hash, key);
+        if (entry != NIL) {
+            V oldValue = valueAt(entry);
+            values[entry] = value;
+            moveToFront(entry);
+            return oldValue;
+        }
+        if (maxSize == 0)
+            return null;
+        if (size == maxSize)
+            removeEntry(last);
+        if (free != NIL) {
+            entry = free;
+            free = next[entry];
+        } else {
+            entry = used++;
+        }
+        int bucket = LruHashMap.backed(buckets.length, hash);
+        keys[entry] = key;
+        values[entry] = value;
+        hashes[entry] = hash;
+        next[entry] = buckets[bucket];
+        buckets[bucket] = entry;
+        linkFirst(entry);
+        size++;
+        modCount++;
+        return null;
+    }
+
+    @Override
+    public V remove(Object key) {
+        int entry = getEntry(LruHashMap.spread(key.hashCode()), key);
+        if (entry == NIL)
+            return null;
+        V value = valueAt(entry);
+        removeEntry(entry);
+        return value;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(keys, 0, used, null);
+        Arrays.fill(values, 0, used, null);
+        Arrays.fill(buckets, NIL);
+        size = 0;
+        used = 0;
+        root = NIL;
+        last = NIL;
+        free = NIL;
+        modCount++;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        EntrySet es;
+        return (es = entrySet) != null ? es : (entrySet = new EntrySet());
+    }
+
+    private int getEntry(int hash, Object key) {
+        for (int entry = buckets[LruHashMap.backed(buckets.length, hash)]; entry != NIL; entry = next[entry])
+            if (hashes[entry] == hash && Objects.equals(keys[entry], key))
+                return entry;
+        return NIL;
+    }
+
+    @SuppressWarnings("unchecked")
+    private K keyAt(int entry) {
+        return (K) keys[entry];
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int entry) {
+        return (V) values[entry];
+    }
+
+    private void removeEntry(int entry) {
+        int bucket = LruHashMap.backed(buckets.length, hashes[entry]);
+        int cur = buckets[bucket];
+        if (cur == entry) {
+            buckets[bucket] = next[entry];
+        } else {
+            while (next[cur] != entry)
+                cur = next[cur];
+            next[cur] = next[entry];
+        }
+        unlink(entry);
+        keys[entry] = null;
+        values[entry] = null;
+        next[entry] = free;
+        free = entry;
+        size--;
+        modCount++;
+    }
+
+    private void linkFirst(int entry) {
+        before[entry] = NIL;
+        after[entry] = root;
+        if (root != NIL)
+            before[root] = entry;
+        else
+            last = entry;
+        root = entry;
+    }
+
+    private void unlink(int entry) {
+        int b = before[entry];
+        int a = after[entry];
+        if (b != NIL)
+            after[b] = a;
+        else
+            root = a;
+        if (a != NIL)
+            before[a] = b;
+        else
+            last = b;
+    }
+
+    private void moveToFront(int entry) {
+        if (entry != root) {
+            unlink(entry);
+            linkFirst(entry);
+            modCount++; // the access order is the iteration order
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return CompactLruHashMap.this.size();
+        }
+
+        @Override
+        public void clear() {
+            CompactLruHashMap.this.clear();
+        }
+    }
+
+    /**
+     * Iterates from the most to the least recently used entry.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        private int next = root;
+        private int lastReturned = NIL;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return next != NIL;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (next == NIL)
+                throw new NoSuchElementException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            lastReturned = next;
+            next = after[next];
+            return new WriteThroughEntry(lastReturned);
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned == NIL)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            removeEntry(lastReturned);
+            expectedModCount = modCount;
+            lastReturned = NIL;
+        }
+    }
+
+    /**
+     * A view of an entry which writes values through to the map while the
+     * entry is mapped.
+     */
+    private final class WriteThroughEntry extends SimpleEntry<K, V> {
+        private final int entry;
+
+        WriteThroughEntry(int entry) {
+            super(keyAt(entry), valueAt(entry));
+            this.entry = entry;
+        }
+
+        @Override
+        public V setValue(V value) {
+            if (value == null) throw new NullPointerException();
+            if (keys[entry] == getKey())
+                values[entry] = value;
+            return super.setValue(value);
+        }
+    }
+}
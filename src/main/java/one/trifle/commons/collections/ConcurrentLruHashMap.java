@@ -0,0 +1,678 @@
+package one.trifle.commons.collections;
+
+import one.trifle.commons.utils.Objects;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static one.trifle.commons.collections.LruHashMap.backed;
+import static one.trifle.commons.collections.LruHashMap.spread;
+
+/**
+ * A bounded, thread-safe map which evicts the least recently used entries.
+ * <p>
+ * The table and the access order are striped into independently locked
+ * segments. Every segment keeps the {@link LruHashMap} bucket layout
+ * ({@code spread()}/{@code backed()}) and its own before/after access list,
+ * so operations on keys which fall into different segments never contend.
+ * Lookups walk the buckets without locking; the lock of a segment is only
+ * taken to mutate it, including relinking a hit to the head of its access
+ * list.
+ * <p>
+ * With buffered reads enabled a hit does not take the lock at all: it is
+ * recorded into one of the striped, lossy ring buffers of the segment and
+ * the recorded hits are replayed against the access list in batches, either
+ * by the reader which fills a buffer (if the lock is free), by the next write
+ * to the segment or by {@link #cleanUp()}. Hits dropped on a full buffer only
+ * cost recency precision, never correctness.
+ * <p>
+ * The total bound is split between the segments, so the map never holds
+ * more than {@code maxSize} entries. Eviction is least recently used within
+ * a segment; use a concurrency level of {@code 1} for a strict global order.
+ * <p>
+ * Iterators are weakly consistent: they never throw
+ * {@link ConcurrentModificationException} and may or may not reflect
+ * modifications made after their creation.
+ */
+public class ConcurrentLruHashMap<K, V> extends AbstractMap<K, V>
+        implements ConcurrentMap<K, V>, Serializable {
+    /**
+     * The default number of segments, used when not otherwise specified.
+     */
+    static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+    /**
+     * The maximum number of segments to allow.
+     */
+    static final int MAX_SEGMENTS = 1 << 16;
+    /**
+     * The load factor of every segment table.
+     */
+    private static final float LOAD_FACTOR = 0.75f;
+    /**
+     * The largest possible segment table capacity.
+     */
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    /**
+     * Golden ratio multiplier used to pick the segment from the high bits,
+     * leaving the low bits to {@code backed()} inside the segment.
+     */
+    private static final int SEGMENT_MIX = 0x9E3779B9;
+    /**
+     * The number of read buffers of a segment.
+     */
+    static final int READ_BUFFER_STRIPES = Math.min(4, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+    /**
+     * The capacity of a read buffer, a power of two.
+     */
+    static final int READ_BUFFER_SIZE = 16;
+    /**
+     * The number of pending hits after which a reader tries to drain.
+     */
+    static final int READ_BUFFER_DRAIN_THRESHOLD = READ_BUFFER_SIZE / 2;
+
+    private final int maxSize;
+    private final int segmentShift;
+    private final int segmentMask;
+    final Segment<K, V>[] segments;
+    private transient EntrySet entrySet;
+    /**
+     * The statistics, or {@code null} until they are enabled.
+     */
+    transient volatile StatsCounter stats;
+
+    /**
+     * Creates a new, empty map with the default concurrency level.
+     *
+     * @param size the maximum number of entries
+     */
+    public ConcurrentLruHashMap(int size) {
+        this(size, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Creates a new, empty map which locks a segment on every hit.
+     *
+     * @param size             the maximum number of entries
+     * @param concurrencyLevel the estimated number of concurrently updating
+     *                         threads, used to pick the number of segments
+     * @throws IllegalArgumentException if the size is negative or the
+     *                                  concurrency level is not positive
+     */
+    public ConcurrentLruHashMap(int size, int concurrencyLevel) {
+        this(size, concurrencyLevel, false);
+    }
+
+    /**
+     * Creates a new, empty map.
+     *
+     * @param size             the maximum number of entries
+     * @param concurrencyLevel the estimated number of concurrently updating
+     *                         threads, used to pick the number of segments
+     * @param bufferedReads    if {@code true} hits are recorded into read
+     *                         buffers and replayed in batches instead of
+     *                         locking the segment on every hit
+     * @throws IllegalArgumentException if the size is negative or the
+     *                                  concurrency level is not positive
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentLruHashMap(int size, int concurrencyLevel, boolean bufferedReads) {
+        if (size < 0 || concurrencyLevel <= 0)
+            throw new IllegalArgumentException();
+        int limit = Math.min(Math.min(concurrencyLevel, MAX_SEGMENTS), Math.max(size, 1));
+        int sshift = 0;
+        int ssize = 1;
+        while ((ssize << 1) <= limit) {
+            ++sshift;
+            ssize <<= 1;
+        }
+        this.segmentShift = 32 - sshift;
+        this.segmentMask = ssize - 1;
+        this.maxSize = size;
+        this.segments = new Segment[ssize];
+        for (int i = 0; i < ssize; i++) {
+            int capacity = size / ssize + (i < size % ssize ? 1 : 0);
+            segments[i] = new Segment<K, V>(capacity, bufferedReads);
+        }
+    }
+
+    final Segment<K, V> segmentFor(int hash) {
+        return segments[((hash * SEGMENT_MIX) >>> segmentShift) & segmentMask];
+    }
+
+    /**
+     * Returns the maximum number of entries this map may hold.
+     *
+     * @return the bound given at construction
+     */
+    public int maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Replays the hits pending in the read buffers of every segment against
+     * its access list. Buffers are drained on writes anyway; calling this
+     * periodically keeps the recency order fresh for read-mostly workloads.
+     */
+    public void cleanUp() {
+        for (Segment<K, V> segment : segments) {
+            segment.lock();
+            try {
+                segment.drainReadBuffers();
+            } finally {
+                segment.unlock();
+            }
+        }
+    }
+
+    /**
+     * Starts recording hits, misses and evictions. Statistics are off by
+     * default; once enabled they are kept in striped counters shared by all
+     * segments, so recording them adds no contended field. Calling this again
+     * keeps the counts recorded so far.
+     *
+     * @see #stats()
+     */
+    public synchronized void recordStats() {
+        if (stats != null)
+            return;
+        StatsCounter counter = new StatsCounter();
+        for (Segment<K, V> segment : segments)
+            segment.stats = counter;
+        stats = counter;
+    }
+
+    /**
+     * Returns a snapshot of the statistics recorded since
+     * {@link #recordStats()} was called, or empty statistics if they are not
+     * recorded. The counts of concurrent operations may be partially included.
+     *
+     * @return the statistics
+     */
+    public CacheStats stats() {
+        StatsCounter counter = stats;
+        return counter == null ? CacheStats.empty() : counter.snapshot();
+    }
+
+    @Override
+    public int size() {
+        long sum = 0;
+        for (Segment<K, V> segment : segments)
+            sum += segment.count;
+        return sum > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) sum;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (Segment<K, V> segment : segments)
+            if (segment.count != 0)
+                return false;
+        return true;
+    }
+
+    @Override
+    public V get(Object key) {
+        int hash = spread(key.hashCode());
+        V value = segmentFor(hash).get(hash, key);
+        StatsCounter counter = stats;
+        if (counter != null) {
+            if (value != null)
+                counter.recordHits(1);
+            else
+                counter.recordMisses(1);
+        }
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int hash = spread(key.hashCode());
+        return segmentFor(hash).get(hash, key) != null;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        if (key == null || value == null) throw new NullPointerException();
+        int hash = spread(key.hashCode());
+        return segmentFor(hash).put(hash, key, value, false);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        if (key == null || value == null) throw new NullPointerException();
+        int hash = spread(key.hashCode());
+        return segmentFor(hash).put(hash, key, value, true);
+    }
+
+    @Override
+    public V remove(Object key) {
+        int hash = spread(key.hashCode());
+        return segmentFor(hash).remove(hash, key, null);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        int hash = spread(key.hashCode());
+        return value != null && segmentFor(hash).remove(hash, key, value) != null;
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        if (key == null || oldValue == null || newValue == null) throw new NullPointerException();
+        int hash = spread(key.hashCode());
+        return segmentFor(hash).replace(hash, key, oldValue, newValue) != null;
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        if (key == null || value == null) throw new NullPointerException();
+        int hash = spread(key.hashCode());
+        return segmentFor(hash).replace(hash, key, null, value);
+    }
+
+    @Override
+    public void clear() {
+        for (Segment<K, V> segment : segments)
+            segment.clear();
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        EntrySet es = entrySet;
+        return (es != null) ? es : (entrySet = new EntrySet());
+    }
+
+    /**
+     * Segments are specialized versions of the {@link LruHashMap} table
+     * which are guarded by their own lock. Bucket heads and the {@code next}
+     * and {@code value} fields are published with volatile semantics, so
+     * lookups may walk a segment without holding its lock. The access list
+     * is only touched while the lock is held, so every write drains the
+     * read buffers before it changes the segment.
+     */
+    static final class Segment<K, V> extends ReentrantLock implements Serializable {
+        final int maxSize;
+        transient final AtomicReferenceArray<Entry<K, V>> table;
+        transient volatile int count;
+        transient Entry<K, V> root;
+        transient Entry<K, V> last;
+        transient final ReadBuffer<K, V>[] readBuffers;
+        transient volatile StatsCounter stats;
+
+        @SuppressWarnings("unchecked")
+        Segment(int maxSize, boolean bufferedReads) {
+            this.maxSize = maxSize;
+            this.table = new AtomicReferenceArray<Entry<K, V>>(tableSizeFor((int) (maxSize / LOAD_FACTOR) + 1));
+            if (bufferedReads) {
+                readBuffers = new ReadBuffer[READ_BUFFER_STRIPES];
+                for (int i = 0; i < readBuffers.length; i++)
+                    readBuffers[i] = new ReadBuffer<K, V>();
+            } else {
+                readBuffers = null;
+            }
+        }
+
+        private static int tableSizeFor(int c) {
+            int n = 1;
+            while (n < c && n < MAXIMUM_CAPACITY)
+                n <<= 1;
+            return n;
+        }
+
+        /**
+         * Lock free lookup of the node for the key.
+         */
+        Entry<K, V> getEntry(int hash, Object key) {
+            Entry<K, V> entry = table.get(backed(table.length(), hash));
+            while (entry != null) {
+                if (entry.hash == hash && Objects.equals(entry.key, key))
+                    return entry;
+                entry = entry.next;
+            }
+            return null;
+        }
+
+        V get(int hash, Object key) {
+            Entry<K, V> entry = getEntry(hash, key);
+            if (entry == null)
+                return null;
+            V value = entry.value;
+            if (readBuffers != null) {
+                afterRead(entry);
+                return value;
+            }
+            lock();
+            try {
+                applyRead(entry);
+            } finally {
+                unlock();
+            }
+            return value;
+        }
+
+        /**
+         * Records the hit into the read buffer of the current thread and
+         * drains the buffers if it is filling up and nobody holds the lock.
+         */
+        private void afterRead(Entry<K, V> entry) {
+            int stripe = (int) Thread.currentThread().getId() * SEGMENT_MIX >>> 16;
+            ReadBuffer<K, V> buffer = readBuffers[stripe & (readBuffers.length - 1)];
+            if (buffer.offer(entry) >= READ_BUFFER_DRAIN_THRESHOLD && tryLock()) {
+                try {
+                    drainReadBuffers();
+                } finally {
+                    unlock();
+                }
+            }
+        }
+
+        /**
+         * Moves the entry to the head of the access list unless it has been
+         * removed meanwhile. Must be called under the lock.
+         */
+        private void applyRead(Entry<K, V> entry) {
+            if (isLinked(entry)) {
+                removeEntryFromStatistic(entry);
+                setHeadEntry(entry);
+            }
+        }
+
+        /**
+         * Replays the hits pending in the read buffers. Must be called under
+         * the lock.
+         */
+        void drainReadBuffers() {
+            if (readBuffers == null)
+                return;
+            for (ReadBuffer<K, V> buffer : readBuffers) {
+                long readCounter = buffer.readCounter;
+                long writeCounter = buffer.writeCounter.get();
+                for (; readCounter < writeCounter; readCounter++) {
+                    int index = (int) readCounter & (READ_BUFFER_SIZE - 1);
+                    Entry<K, V> entry = buffer.buffer.get(index);
+                    if (entry == null)
+                        break; // the slot is claimed but not yet published
+                    buffer.buffer.lazySet(index, null);
+                    applyRead(entry);
+                }
+                buffer.readCounter = readCounter;
+            }
+        }
+
+        V put(int hash, K key, V value, boolean onlyIfAbsent) {
+            lock();
+            try {
+                drainReadBuffers();
+                Entry<K, V> entry = getEntry(hash, key);
+                if (entry != null) {
+                    V oldValue = entry.value;
+                    if (!onlyIfAbsent)
+                        entry.value = value;
+                    removeEntryFromStatistic(entry);
+                    setHeadEntry(entry);
+                    return oldValue;
+                }
+                int backed = backed(table.length(), hash);
+                entry = new Entry<K, V>(hash, key, value, table.get(backed));
+                table.set(backed, entry);
+                setHeadEntry(entry);
+                count++;
+                removeTail();
+                return null;
+            } finally {
+                unlock();
+            }
+        }
+
+        V replace(int hash, Object key, Object expect, V value) {
+            lock();
+            try {
+                drainReadBuffers();
+                Entry<K, V> entry = getEntry(hash, key);
+                if (entry == null || (expect != null && !Objects.equals(expect, entry.value)))
+                    return null;
+                V oldValue = entry.value;
+                entry.value = value;
+                removeEntryFromStatistic(entry);
+                setHeadEntry(entry);
+                return oldValue;
+            } finally {
+                unlock();
+            }
+        }
+
+        V remove(int hash, Object key, Object expect) {
+            lock();
+            try {
+                drainReadBuffers();
+                Entry<K, V> entry = getEntry(hash, key);
+                if (entry == null || (expect != null && !Objects.equals(expect, entry.value)))
+                    return null;
+                return removeEntry(entry);
+            } finally {
+                unlock();
+            }
+        }
+
+        void clear() {
+            lock();
+            try {
+                drainReadBuffers();
+                for (int i = 0; i < table.length(); i++)
+                    table.set(i, null);
+                for (Entry<K, V> entry = root; entry != null; ) {
+                    Entry<K, V> after = entry.after;
+                    entry.before = entry.after = null;
+                    entry = after;
+                }
+                root = null;
+                last = null;
+                count = 0;
+            } finally {
+                unlock();
+            }
+        }
+
+        private void removeTail() {
+            while (count > maxSize && last != null) {
+                StatsCounter counter = stats;
+                if (counter != null)
+                    counter.recordEviction(1);
+                removeEntry(last);
+            }
+        }
+
+        private V removeEntry(Entry<K, V> entry) {
+            int backed = backed(table.length(), entry.hash);
+            Entry<K, V> cur = table.get(backed);
+            if (cur == entry) {
+                table.set(backed, entry.next);
+            } else {
+                while (cur.next != entry)
+                    cur = cur.next;
+                cur.next = entry.next;
+            }
+            removeEntryFromStatistic(entry);
+            count--;
+            return entry.value;
+        }
+
+        private boolean isLinked(Entry<K, V> entry) {
+            return entry.before != null || root == entry;
+        }
+
+        private void setHeadEntry(Entry<K, V> entry) {
+            entry.after = root;
+            entry.before = null;
+            if (root != null) {
+                root.before = entry;
+            }
+            if (last == null) {
+                last = entry;
+            }
+            root = entry;
+        }
+
+        private void removeEntryFromStatistic(Entry<K, V> entry) {
+            Entry<K, V> before = entry.before;
+            Entry<K, V> after = entry.after;
+            if (before != null) {
+                before.after = after;
+            } else {
+                root = after;
+            }
+            if (after != null) {
+                after.before = before;
+            } else {
+                last = before;
+            }
+            entry.before = null;
+            entry.after = null;
+        }
+    }
+
+    /**
+     * Lossy single consumer ring buffer of hits. Producers claim a slot with
+     * a CAS on the write counter and give up if the buffer is full or the
+     * CAS fails; the consumer drains it under the segment lock.
+     */
+    static final class ReadBuffer<K, V> {
+        final AtomicLong writeCounter = new AtomicLong();
+        final AtomicReferenceArray<Entry<K, V>> buffer = new AtomicReferenceArray<Entry<K, V>>(READ_BUFFER_SIZE);
+        volatile long readCounter;
+
+        /**
+         * Records the entry if there is room for it.
+         *
+         * @return the number of pending hits in the buffer
+         */
+        int offer(Entry<K, V> entry) {
+            long head = readCounter;
+            long tail = writeCounter.get();
+            int pending = (int) (tail - head);
+            if (pending >= READ_BUFFER_SIZE)
+                return pending;
+            if (writeCounter.compareAndSet(tail, tail + 1)) {
+                buffer.lazySet((int) tail & (READ_BUFFER_SIZE - 1), entry);
+                return pending + 1;
+            }
+            return pending;
+        }
+    }
+
+    /**
+     * Node of a segment. The {@code before} and {@code after} links are
+     * guarded by the segment lock.
+     */
+    static final class Entry<K, V> {
+        final int hash;
+        final K key;
+        volatile V value;
+        volatile Entry<K, V> next;
+        Entry<K, V> before, after;
+
+        Entry(int hash, K key, V value, Entry<K, V> next) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Custom Entry class used by EntryIterator.next(), that relays
+     * setValue changes to the underlying map.
+     */
+    final class WriteThroughEntry extends AbstractMap.SimpleEntry<K, V> {
+        WriteThroughEntry(K key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            if (value == null) throw new NullPointerException();
+            V v = super.setValue(value);
+            ConcurrentLruHashMap.this.put(getKey(), value);
+            return v;
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return ConcurrentLruHashMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return ConcurrentLruHashMap.this.isEmpty();
+        }
+
+        @Override
+        public void clear() {
+            ConcurrentLruHashMap.this.clear();
+        }
+    }
+
+    /**
+     * Weakly consistent iterator over the buckets of all segments.
+     */
+    final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        int nextSegmentIndex = 0;
+        int nextTableIndex = -1;
+        AtomicReferenceArray<Entry<K, V>> currentTable;
+        Entry<K, V> next;
+        Entry<K, V> lastReturned;
+
+        EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            if (next != null && (next = next.next) != null)
+                return;
+            while (true) {
+                while (nextTableIndex >= 0) {
+                    if ((next = currentTable.get(nextTableIndex--)) != null)
+                        return;
+                }
+                if (nextSegmentIndex >= segments.length)
+                    return;
+                currentTable = segments[nextSegmentIndex++].table;
+                nextTableIndex = currentTable.length() - 1;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            Entry<K, V> e = next;
+            if (e == null)
+                throw new NoSuchElementException();
+            lastReturned = e;
+            advance();
+            return new WriteThroughEntry(e.key, e.value);
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned == null)
+                throw new IllegalStateException();
+            ConcurrentLruHashMap.this.remove(lastReturned.key);
+            lastReturned = null;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package one.trifle.commons.collections;
+
+/**
+ * Calculates how expensive it is to lose an entry, for example the time it
+ * takes to recompute its value. Used by cost-aware eviction policies.
+ * <p>
+ * The cost is calculated when the value is put into the map and is cached in
+ * the entry, so it must not depend on mutable state of the key or the value.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ * @see EvictionPolicy#greedyDualSize(Coster)
+ */
+public interface Coster<K, V> {
+    /**
+     * Returns the cost of the entry. There is no unit for costs; the policy
+     * only compares them relative to the weight of the entries.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the non-negative cost of the entry
+     */
+    double cost(K key, V value);
+}
@@ -0,0 +1,83 @@
+package one.trifle.commons.collections;
+
+/**
+ * A doubly linked list of {@link LruHashMap} entries threaded through their
+ * {@code before} and {@code after} fields, so linking and unlinking an entry
+ * is O(1) and allocation free. An entry belongs to at most one deque.
+ */
+final class EntryDeque<K, V> {
+    LruHashMap.Entry<K, V> first;
+    LruHashMap.Entry<K, V> last;
+    int size;
+
+    boolean isEmpty() {
+        return first == null;
+    }
+
+    boolean contains(LruHashMap.Entry<K, V> entry) {
+        return entry.before != null || first == entry;
+    }
+
+    void linkFirst(LruHashMap.Entry<K, V> entry) {
+        entry.before = null;
+        entry.after = first;
+        if (first != null)
+            first.before = entry;
+        else
+            last = entry;
+        first = entry;
+        size++;
+    }
+
+    void linkLast(LruHashMap.Entry<K, V> entry) {
+        entry.after = null;
+        entry.before = last;
+        if (last != null)
+            last.after = entry;
+        else
+            first = entry;
+        last = entry;
+        size++;
+    }
+
+    /**
+     * Unlinks the entry; does nothing if it is not linked into this deque.
+     */
+    void unlink(LruHashMap.Entry<K, V> entry) {
+        if (!contains(entry))
+            return;
+        LruHashMap.Entry<K, V> before = entry.before;
+        LruHashMap.Entry<K, V> after = entry.after;
+        if (before != null)
+            before.after = after;
+        else
+            first = after;
+        if (after != null)
+            after.before = before;
+        else
+            last = before;
+        entry.before = null;
+        entry.after = null;
+        size--;
+    }
+
+    void moveToFront(LruHashMap.Entry<K, V> entry) {
+        if (entry != first) {
+            unlink(entry);
+            linkFirst(entry);
+        }
+    }
+
+    void moveToBack(LruHashMap.Entry<K, V> entry) {
+        if (entry != last) {
+            unlink(entry);
+            linkLast(entry);
+        }
+    }
+
+    void clear() {
+        first = null;
+        last = null;
+        size = 0;
+    }
+}
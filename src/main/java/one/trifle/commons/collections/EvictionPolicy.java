@@ -0,0 +1,155 @@
+package one.trifle.commons.collections;
+
+import java.util.Map;
+
+/**
+ * Decides which entry a bounded map evicts when it overflows.
+ * <p>
+ * The map notifies the policy about every entry it inserts, reads, updates
+ * and removes, and asks it for a victim until the map fits its bounds again.
+ * The entries passed to the policy are the nodes of the map, so their
+ * identity is stable for as long as they are mapped. A policy keeps state
+ * about the entries of one map and must not be shared between maps.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ * @see LruHashMap#LruHashMap(int, EvictionPolicy)
+ */
+public interface EvictionPolicy<K, V> {
+    /**
+     * Returns a new policy evicting the least recently used entry. This is
+     * the default policy of {@link LruHashMap}, which keeps it on a
+     * statically bound call path.
+     *
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     * @return the least recently used policy
+     */
+    static <K, V> EvictionPolicy<K, V> lru() {
+        return new LruPolicy<K, V>();
+    }
+
+    /**
+     * Returns a new policy evicting the entry which was inserted first,
+     * regardless of how it has been read or updated since.
+     *
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     * @return the first in, first out policy
+     */
+    static <K, V> EvictionPolicy<K, V> fifo() {
+        return new FifoPolicy<K, V>();
+    }
+
+    /**
+     * Returns a new SIEVE policy. A hit only marks the entry as visited
+     * instead of moving it in the access order, so reads are write-free
+     * apart from that mark; eviction skips over visited entries once.
+     *
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     * @return the SIEVE policy
+     */
+    static <K, V> EvictionPolicy<K, V> sieve() {
+        return new SievePolicy<K, V>();
+    }
+
+    /**
+     * Returns a new Window TinyLFU policy. An entry is only admitted to the
+     * main region at the expense of another one if it has been used more
+     * often recently, which protects the working set from scans and raises
+     * the hit ratio on skewed workloads.
+     *
+     * @param maximumSize the maximum number of entries of the map
+     * @param <K>         the type of keys
+     * @param <V>         the type of values
+     * @return the Window TinyLFU policy
+     * @throws IllegalArgumentException if {@code maximumSize} is negative
+     */
+    static <K, V> EvictionPolicy<K, V> tinyLfu(int maximumSize) {
+        return new TinyLfuPolicy<K, V>(maximumSize);
+    }
+
+    /**
+     * Returns a new Adaptive Replacement Cache policy, which balances between
+     * recently and frequently used entries and adapts the balance to the
+     * workload using the history of recently evicted keys.
+     *
+     * @param maximumSize the maximum number of entries of the map
+     * @param <K>         the type of keys
+     * @param <V>         the type of values
+     * @return the ARC policy
+     * @throws IllegalArgumentException if {@code maximumSize} is negative
+     */
+    static <K, V> EvictionPolicy<K, V> arc(int maximumSize) {
+        return new ArcPolicy<K, V>(maximumSize);
+    }
+
+    /**
+     * Returns a new GreedyDual-Size-Frequency policy, which evicts the entry
+     * with the lowest {@code frequency * cost / weight} credit, aged by an
+     * inflation value so that entries which are no longer used go as well.
+     * The weight is the one of the map's {@link Weigher}, or {@code 1} if the
+     * map is not bounded by weight.
+     *
+     * @param coster calculates the cost of losing an entry
+     * @param <K>    the type of keys
+     * @param <V>    the type of values
+     * @return the GreedyDual-Size-Frequency policy
+     * @throws NullPointerException if the coster is null
+     */
+    static <K, V> EvictionPolicy<K, V> greedyDualSize(Coster<? super K, ? super V> coster) {
+        return new GreedyDualSizePolicy<K, V>(coster);
+    }
+
+    /**
+     * Called when an entry is added to the map.
+     *
+     * @param entry the new entry
+     */
+    void onInsert(Map.Entry<K, V> entry);
+
+    /**
+     * Called when an entry is read or its value is replaced.
+     *
+     * @param entry the entry
+     */
+    void onAccess(Map.Entry<K, V> entry);
+
+    /**
+     * Called when an entry leaves the map, whether it was removed explicitly,
+     * evicted or expired.
+     *
+     * @param entry the removed entry
+     */
+    void onRemove(Map.Entry<K, V> entry);
+
+    /**
+     * Selects the entry to evict. The map removes it and calls
+     * {@link #onRemove} before asking for the next victim.
+     *
+     * @return the entry to evict, or {@code null} if there is none
+     */
+    Map.Entry<K, V> selectVictim();
+
+    /**
+     * Called when the map has evicted down to its bounds after a write or a
+     * change of the maximum size, whether or not it evicted anything. A
+     * policy which spares the entry whose insert caused the overflow forgets
+     * that entry here, so later evictions treat it like any other; the
+     * default does nothing.
+     */
+    default void onEvictionEnd() {
+    }
+
+    /**
+     * Called when the maximum size of the map changes, before the map evicts
+     * down to the new bound. Policies which size their regions or history
+     * after the maximum size adjust them; the default does nothing.
+     *
+     * @param maximumSize the new maximum number of entries
+     * @see LruHashMap#setMaximumSize(int)
+     */
+    default void setMaximumSize(int maximumSize) {
+    }
+}
@@ -0,0 +1,51 @@
+package one.trifle.commons.collections;
+
+/**
+ * Calculates when an entry of a map expires, letting every entry have a
+ * lifetime of its own.
+ * <p>
+ * All times are in nanoseconds of the map's time source. A returned duration
+ * is the time left until the entry expires, measured from
+ * {@code currentTime}; zero or a negative duration expires the entry
+ * immediately. To keep the deadline of an entry unchanged return
+ * {@code currentDuration}.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public interface Expiry<K, V> {
+    /**
+     * Specifies that the entry should expire after the duration has passed
+     * since it was put into the map.
+     *
+     * @param key         the key
+     * @param value       the value
+     * @param currentTime the current time
+     * @return the length of time before the entry expires
+     */
+    long expireAfterCreate(K key, V value, long currentTime);
+
+    /**
+     * Specifies that the entry should expire after the duration has passed
+     * since its value was replaced.
+     *
+     * @param key             the key
+     * @param value           the new value
+     * @param currentTime     the current time
+     * @param currentDuration the time left before the old value expires
+     * @return the length of time before the entry expires
+     */
+    long expireAfterUpdate(K key, V value, long currentTime, long currentDuration);
+
+    /**
+     * Specifies that the entry should expire after the duration has passed
+     * since it was read.
+     *
+     * @param key             the key
+     * @param value           the value
+     * @param currentTime     the current time
+     * @param currentDuration the time left before the entry expires
+     * @return the length of time before the entry expires
+     */
+    long expireAfterRead(K key, V value, long currentTime, long currentDuration);
+}
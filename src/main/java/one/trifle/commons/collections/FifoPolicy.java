@@ -0,0 +1,30 @@
+package one.trifle.commons.collections;
+
+import java.util.Map;
+
+/**
+ * Evicts the entry which was inserted first. Reads and updates do not touch
+ * the insertion order kept in the intrusive before/after list.
+ */
+final class FifoPolicy<K, V> implements EvictionPolicy<K, V> {
+    final EntryDeque<K, V> deque = new EntryDeque<K, V>();
+
+    @Override
+    public void onInsert(Map.Entry<K, V> entry) {
+        deque.linkFirst((LruHashMap.Entry<K, V>) entry);
+    }
+
+    @Override
+    public void onAccess(Map.Entry<K, V> entry) {
+    }
+
+    @Override
+    public void onRemove(Map.Entry<K, V> entry) {
+        deque.unlink((LruHashMap.Entry<K, V>) entry);
+    }
+
+    @Override
+    public Map.Entry<K, V> selectVictim() {
+        return deque.last;
+    }
+}
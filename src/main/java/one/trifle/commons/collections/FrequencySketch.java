@@ -0,0 +1,86 @@
+package one.trifle.commons.collections;
+
+/**
+ * A Count-Min sketch estimating how often an item has been seen, with four
+ * 4-bit counters per item packed sixteen to a {@code long}. Once the number of
+ * recorded events reaches ten times the maximum size all counters are halved,
+ * so the estimates favour recent popularity over historic one.
+ */
+final class FrequencySketch {
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int size;
+
+    /**
+     * @param maximumSize the number of items whose frequency should be told apart
+     */
+    FrequencySketch(int maximumSize) {
+        int items = Math.max(maximumSize, 1);
+        int capacity = items >= MAXIMUM_CAPACITY ? MAXIMUM_CAPACITY : Integer.highestOneBit(items - 1) << 1;
+        table = new long[Math.max(capacity, 1)];
+        tableMask = table.length - 1;
+        sampleSize = items > Integer.MAX_VALUE / 10 ? Integer.MAX_VALUE : items * 10;
+    }
+
+    /**
+     * Returns the estimated number of occurrences of the item, up to 15.
+     *
+     * @param hash the spread hash of the item
+     * @return the estimated frequency
+     */
+    int frequency(int hash) {
+        int start = (hash & 3) << 2;
+        int frequency = 15;
+        for (int i = 0; i < 4; i++) {
+            int offset = (start + i) << 2;
+            int count = (int) ((table[indexOf(hash, i)] >>> offset) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Records an occurrence of the item, aging all counters when the sample
+     * is complete.
+     *
+     * @param hash the spread hash of the item
+     */
+    void increment(int hash) {
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), (start + i) << 2);
+        }
+        if (added && ++size == sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int offset) {
+        long mask = 0xfL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size >>>= 1;
+    }
+
+    private int indexOf(int item, int i) {
+        long hash = (item + SEEDS[i]) * SEEDS[i];
+        hash += hash >>> 32;
+        return (int) hash & tableMask;
+    }
+}
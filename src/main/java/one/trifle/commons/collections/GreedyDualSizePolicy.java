@@ -0,0 +1,168 @@
+package one.trifle.commons.collections;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * GreedyDual-Size-Frequency: every entry has the priority
+ * {@code L + frequency * cost / size}, where the size is the weight of the
+ * entry (at least {@code 1}) and {@code L} is an inflation value raised to the
+ * priority of every evicted entry. The entry with the lowest priority is
+ * evicted, so cheap, large and rarely used entries go first while entries
+ * which are not used any more age out as {@code L} grows.
+ * <p>
+ * Entries are kept in a binary min-heap indexed from the entries, so every
+ * operation is O(log n). As the algorithm evicts before it inserts, the entry
+ * whose insertion caused the overflow is only evicted if it is the last one.
+ */
+final class GreedyDualSizePolicy<K, V> implements EvictionPolicy<K, V> {
+    /**
+     * The heap node of an entry.
+     */
+    static final class Node<K, V> {
+        final LruHashMap.Entry<K, V> entry;
+        V value;
+        double credit;
+        double priority;
+        int frequency;
+        int index;
+
+        Node(LruHashMap.Entry<K, V> entry) {
+            this.entry = entry;
+        }
+    }
+
+    private final Coster<? super K, ? super V> coster;
+    private Node<K, V>[] heap;
+    private int size;
+    /**
+     * The inflation value.
+     */
+    double inflation;
+    private LruHashMap.Entry<K, V> inserted;
+    private Node<K, V> victim;
+
+    @SuppressWarnings("unchecked")
+    GreedyDualSizePolicy(Coster<? super K, ? super V> coster) {
+        if (coster == null) throw new NullPointerException();
+        this.coster = coster;
+        this.heap = new Node[16];
+    }
+
+    @Override
+    public void onInsert(Map.Entry<K, V> entry) {
+        LruHashMap.PolicyEntry<K, V> e = (LruHashMap.PolicyEntry<K, V>) entry;
+        Node<K, V> node = new Node<K, V>(e);
+        e.policyState = node;
+        node.frequency = 1;
+        price(node);
+        if (size == heap.length)
+            heap = Arrays.copyOf(heap, size << 1);
+        node.index = size;
+        heap[size++] = node;
+        siftUp(node);
+        inserted = e;
+    }
+
+    @Override
+    public void onAccess(Map.Entry<K, V> entry) {
+        Node<K, V> node = nodeOf((LruHashMap.PolicyEntry<K, V>) entry);
+        if (node.frequency < Integer.MAX_VALUE)
+            node.frequency++;
+        price(node);
+        siftDown(node);
+        siftUp(node);
+        inserted = null;
+    }
+
+    @Override
+    public void onRemove(Map.Entry<K, V> entry) {
+        LruHashMap.PolicyEntry<K, V> e = (LruHashMap.PolicyEntry<K, V>) entry;
+        Node<K, V> node = nodeOf(e);
+        if (node == null)
+            return;
+        if (node == victim && node.priority > inflation)
+            inflation = node.priority;
+        victim = null;
+        Node<K, V> last = heap[--size];
+        heap[size] = null;
+        if (last != node) {
+            last.index = node.index;
+            heap[last.index] = last;
+            siftDown(last);
+            siftUp(last);
+        }
+        e.policyState = null;
+        if (e == inserted)
+            inserted = null;
+    }
+
+    @Override
+    public void onEvictionEnd() {
+        inserted = null;
+    }
+
+    @Override
+    public Map.Entry<K, V> selectVictim() {
+        if (size == 0)
+            return null;
+        victim = heap[0];
+        if (victim.entry == inserted && size > 1)
+            victim = size == 2 || heap[1].priority <= heap[2].priority ? heap[1] : heap[2];
+        return victim.entry;
+    }
+
+    /**
+     * Recalculates the credit if the value has changed and the priority
+     * relative to the current inflation value.
+     */
+    private void price(Node<K, V> node) {
+        LruHashMap.Entry<K, V> e = node.entry;
+        if (node.value != e.value) {
+            double cost = coster.cost(e.key, e.value);
+            if (!(cost >= 0)) throw new IllegalArgumentException("negative cost " + cost);
+            node.value = e.value;
+            node.credit = cost / Math.max(e.weight(), 1);
+        }
+        node.priority = inflation + node.frequency * node.credit;
+    }
+
+    private void siftUp(Node<K, V> node) {
+        int index = node.index;
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            Node<K, V> p = heap[parent];
+            if (p.priority <= node.priority)
+                break;
+            p.index = index;
+            heap[index] = p;
+            index = parent;
+        }
+        node.index = index;
+        heap[index] = node;
+    }
+
+    private void siftDown(Node<K, V> node) {
+        int index = node.index;
+        int half = size >>> 1;
+        while (index < half) {
+            int child = (index << 1) + 1;
+            Node<K, V> c = heap[child];
+            int right = child + 1;
+            if (right < size && heap[right].priority < c.priority)
+                c = heap[child = right];
+            if (node.priority <= c.priority)
+                break;
+            c.index = index;
+            heap[index] = c;
+            index = child;
+        }
+        node.index = index;
+        heap[index] = node;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Node<K, V> nodeOf(LruHashMap.PolicyEntry<K, V> entry) {
+        return (Node<K, V>) entry.policyState;
+    }
+}
@@ -0,0 +1,36 @@
+package one.trifle.commons.collections;
+
+/**
+ * A map bounded by the number of entries which evicts the least frequently
+ * used entry, and of those the least recently used one. Every operation is
+ * O(1): entries of equal frequency share a bucket and a read moves the entry
+ * into the neighbouring bucket.
+ * <p>
+ * Frequencies may decay: with a decay period set, the frequencies of all
+ * entries are halved after that many inserts and accesses, so entries which
+ * were popular long ago can eventually be evicted.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ * @see LruHashMap
+ */
+public class LfuHashMap<K, V> extends LruHashMap<K, V> {
+    /**
+     * Constructs a map whose frequencies never decay.
+     *
+     * @param size the maximum number of entries
+     */
+    public LfuHashMap(int size) {
+        this(size, 0);
+    }
+
+    /**
+     * @param size        the maximum number of entries
+     * @param decayPeriod the number of inserts and accesses after which all
+     *                    frequencies are halved, or {@code 0} to never decay
+     * @throws IllegalArgumentException if {@code decayPeriod} is negative
+     */
+    public LfuHashMap(int size, int decayPeriod) {
+        super(size, new LfuPolicy<K, V>(decayPeriod));
+    }
+}
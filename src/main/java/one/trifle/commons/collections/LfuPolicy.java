@@ -0,0 +1,168 @@
+package one.trifle.commons.collections;
+
+import java.util.Map;
+
+/**
+ * Evicts the least frequently used entry in O(1). Entries are grouped into
+ * buckets of equal frequency which form a list in ascending order; within a
+ * bucket entries are kept most recently used first, so ties are broken by
+ * recency. As the classic algorithm evicts before it inserts, the entry
+ * whose insertion caused the overflow is only evicted if it is the last one.
+ * <p>
+ * If a decay period is set, the frequencies of all entries are halved after
+ * that many inserts and accesses, so old popularity fades.
+ */
+final class LfuPolicy<K, V> implements EvictionPolicy<K, V> {
+    /**
+     * Entries used the same number of times.
+     */
+    static final class Bucket<K, V> {
+        final EntryDeque<K, V> entries = new EntryDeque<K, V>();
+        int frequency;
+        Bucket<K, V> prev, next;
+
+        Bucket(int frequency) {
+            this.frequency = frequency;
+        }
+    }
+
+    /**
+     * The bucket of the lowest frequency.
+     */
+    Bucket<K, V> lowest;
+    private LruHashMap.Entry<K, V> inserted;
+    private final int decayPeriod;
+    private int events;
+
+    /**
+     * @param decayPeriod the number of inserts and accesses after which the
+     *                    frequencies are halved, or {@code 0} to never decay
+     */
+    LfuPolicy(int decayPeriod) {
+        if (decayPeriod < 0) throw new IllegalArgumentException();
+        this.decayPeriod = decayPeriod;
+    }
+
+    @Override
+    public void onInsert(Map.Entry<K, V> entry) {
+        LruHashMap.PolicyEntry<K, V> e = (LruHashMap.PolicyEntry<K, V>) entry;
+        Bucket<K, V> bucket = lowest;
+        if (bucket == null || bucket.frequency != 1)
+            bucket = linkAfter(null, 1);
+        e.policyState = bucket;
+        bucket.entries.linkFirst(e);
+        inserted = e;
+        recordEvent();
+    }
+
+    @Override
+    public void onAccess(Map.Entry<K, V> entry) {
+        LruHashMap.PolicyEntry<K, V> e = (LruHashMap.PolicyEntry<K, V>) entry;
+        Bucket<K, V> bucket = bucketOf(e);
+        inserted = null;
+        if (bucket.frequency == Integer.MAX_VALUE) {
+            bucket.entries.moveToFront(e);
+        } else {
+            Bucket<K, V> next = bucket.next;
+            if (next == null || next.frequency != bucket.frequency + 1)
+                next = linkAfter(bucket, bucket.frequency + 1);
+            bucket.entries.unlink(e);
+            if (bucket.entries.isEmpty())
+                unlink(bucket);
+            e.policyState = next;
+            next.entries.linkFirst(e);
+        }
+        recordEvent();
+    }
+
+    @Override
+    public void onRemove(Map.Entry<K, V> entry) {
+        LruHashMap.PolicyEntry<K, V> e = (LruHashMap.PolicyEntry<K, V>) entry;
+        Bucket<K, V> bucket = bucketOf(e);
+        if (bucket == null)
+            return;
+        bucket.entries.unlink(e);
+        e.policyState = null;
+        if (e == inserted)
+            inserted = null;
+        if (bucket.entries.isEmpty())
+            unlink(bucket);
+    }
+
+    @Override
+    public void onEvictionEnd() {
+        inserted = null;
+    }
+
+    @Override
+    public Map.Entry<K, V> selectVictim() {
+        if (lowest == null)
+            return null;
+        LruHashMap.Entry<K, V> victim = lowest.entries.last;
+        if (victim == inserted && lowest.entries.size == 1 && lowest.next != null)
+            return lowest.next.entries.last;
+        return victim;
+    }
+
+    private void recordEvent() {
+        if (decayPeriod > 0 && ++events >= decayPeriod) {
+            events = 0;
+            decay();
+        }
+    }
+
+    /**
+     * Halves all frequencies and merges the buckets which became equal. The
+     * entries of the formerly less frequent bucket go behind the others, so
+     * they are still evicted first.
+     */
+    private void decay() {
+        for (Bucket<K, V> bucket = lowest; bucket != null; bucket = bucket.next)
+            bucket.frequency = Math.max(1, bucket.frequency >>> 1);
+        Bucket<K, V> bucket = lowest;
+        while (bucket != null && bucket.next != null) {
+            Bucket<K, V> next = bucket.next;
+            if (bucket.frequency == next.frequency) {
+                LruHashMap.Entry<K, V> e;
+                while ((e = bucket.entries.first) != null) {
+                    bucket.entries.unlink(e);
+                    ((LruHashMap.PolicyEntry<K, V>) e).policyState = next;
+                    next.entries.linkLast(e);
+                }
+                unlink(bucket);
+            }
+            bucket = next;
+        }
+    }
+
+    /**
+     * Links a new bucket after the given one, or as the lowest if it is null.
+     */
+    private Bucket<K, V> linkAfter(Bucket<K, V> prev, int frequency) {
+        Bucket<K, V> bucket = new Bucket<K, V>(frequency);
+        Bucket<K, V> next = prev == null ? lowest : prev.next;
+        bucket.prev = prev;
+        bucket.next = next;
+        if (prev == null)
+            lowest = bucket;
+        else
+            prev.next = bucket;
+        if (next != null)
+            next.prev = bucket;
+        return bucket;
+    }
+
+    private void unlink(Bucket<K, V> bucket) {
+        if (bucket.prev == null)
+            lowest = bucket.next;
+        else
+            bucket.prev.next = bucket.next;
+        if (bucket.next != null)
+            bucket.next.prev = bucket.prev;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Bucket<K, V> bucketOf(LruHashMap.PolicyEntry<K, V> entry) {
+        return (Bucket<K, V>) entry.policyState;
+    }
+}
@@ -0,0 +1,24 @@
+package one.trifle.commons.collections;
+
+/**
+ * A map bounded by the number of entries which evicts by the LIRS algorithm.
+ * Unlike {@link LruHashMap} it ranks entries by the recency of their last two
+ * accesses, so a loop over slightly more keys than the map holds, or a single
+ * scan, does not flush the entries which are reused most often.
+ * <p>
+ * About 1% of the entries are kept for newly seen keys, the rest for keys
+ * which were accessed again soon. Up to {@code size} keys of evicted entries
+ * are remembered to recognise their return.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ * @see LruHashMap
+ */
+public class LirsHashMap<K, V> extends LruHashMap<K, V> {
+    /**
+     * @param size the maximum number of entries
+     */
+    public LirsHashMap(int size) {
+        super(size, new LirsPolicy<K, V>(size));
+    }
+}
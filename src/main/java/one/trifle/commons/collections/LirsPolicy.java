@@ -0,0 +1,266 @@
+package one.trifle.commons.collections;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Low Inter-reference Recency Set. Entries are either LIR, which are never
+ * evicted, or HIR, of which only a small part is resident. The stack S holds
+ * the LIR entries and the HIR entries, resident or not, accessed more recently
+ * than the oldest LIR entry; the queue Q holds the resident HIR entries in the
+ * order they are evicted. A HIR entry accessed again while it is still in S
+ * has a smaller reuse distance than the oldest LIR entry and replaces it, so
+ * loops slightly larger than the map and scans keep a useful working set.
+ * <p>
+ * The resident HIR entries take 1% of the maximum size, at least one, and up
+ * to maximum size non-resident HIR keys are remembered.
+ */
+final class LirsPolicy<K, V> implements EvictionPolicy<K, V> {
+    /**
+     * The state of a key, resident or not.
+     */
+    static final class Node<K, V> {
+        final K key;
+        LruHashMap.Entry<K, V> entry;
+        boolean lir;
+        boolean inStack;
+        Node<K, V> stackPrev, stackNext;
+        Node<K, V> queuePrev, queueNext;
+
+        Node(LruHashMap.Entry<K, V> entry) {
+            this.key = entry.key;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * A FIFO of nodes threaded through their queue links.
+     */
+    static final class NodeQueue<K, V> {
+        Node<K, V> first, last;
+        int size;
+
+        void add(Node<K, V> node) {
+            node.queueNext = null;
+            node.queuePrev = last;
+            if (last != null)
+                last.queueNext = node;
+            else
+                first = node;
+            last = node;
+            size++;
+        }
+
+        void remove(Node<K, V> node) {
+            if (node.queuePrev != null)
+                node.queuePrev.queueNext = node.queueNext;
+            else
+                first = node.queueNext;
+            if (node.queueNext != null)
+                node.queueNext.queuePrev = node.queuePrev;
+            else
+                last = node.queuePrev;
+            node.queuePrev = null;
+            node.queueNext = null;
+            size--;
+        }
+    }
+
+    private int maxLir;
+    private int maxGhosts;
+    private int lirCount;
+    /**
+     * The most recent end of the stack S.
+     */
+    private Node<K, V> stackTop;
+    private Node<K, V> stackBottom;
+    /**
+     * The resident HIR entries, Q.
+     */
+    final NodeQueue<K, V> queue = new NodeQueue<K, V>();
+    /**
+     * The non-resident HIR keys in S, oldest first.
+     */
+    final NodeQueue<K, V> ghostQueue = new NodeQueue<K, V>();
+    final Map<K, Node<K, V>> ghosts = new HashMap<K, Node<K, V>>();
+    private Node<K, V> victim;
+
+    LirsPolicy(int maximumSize) {
+        if (maximumSize < 0) throw new IllegalArgumentException();
+        sizeSets(maximumSize);
+    }
+
+    private void sizeSets(int maximumSize) {
+        int maxHir = Math.max(1, maximumSize / 100);
+        maxLir = Math.max(1, maximumSize - maxHir);
+        maxGhosts = maximumSize;
+    }
+
+    @Override
+    public void onInsert(Map.Entry<K, V> entry) {
+        LruHashMap.PolicyEntry<K, V> e = (LruHashMap.PolicyEntry<K, V>) entry;
+        Node<K, V> node = ghosts.remove(e.key);
+        if (node != null) {
+            ghostQueue.remove(node);
+            node.entry = e;
+            e.policyState = node;
+            moveToTop(node);
+            promote(node);
+        } else {
+            node = new Node<K, V>(e);
+            e.policyState = node;
+            pushStack(node);
+            if (lirCount < maxLir) {
+                node.lir = true;
+                lirCount++;
+            } else {
+                queue.add(node);
+            }
+        }
+    }
+
+    @Override
+    public void onAccess(Map.Entry<K, V> entry) {
+        Node<K, V> node = nodeOf((LruHashMap.PolicyEntry<K, V>) entry);
+        if (node.lir) {
+            boolean bottom = node == stackBottom;
+            moveToTop(node);
+            if (bottom)
+                prune();
+        } else if (node.inStack) {
+            moveToTop(node);
+            queue.remove(node);
+            promote(node);
+        } else {
+            pushStack(node);
+            queue.remove(node);
+            queue.add(node);
+        }
+    }
+
+    @Override
+    public void onRemove(Map.Entry<K, V> entry) {
+        LruHashMap.PolicyEntry<K, V> e = (LruHashMap.PolicyEntry<K, V>) entry;
+        Node<K, V> node = nodeOf(e);
+        if (node == null)
+            return;
+        e.policyState = null;
+        node.entry = null;
+        if (node == victim && !node.lir && node.inStack) {
+            queue.remove(node);
+            ghosts.put(node.key, node);
+            ghostQueue.add(node);
+            trimGhosts();
+        } else {
+            if (node.lir)
+                lirCount--;
+            else
+                queue.remove(node);
+            if (node.inStack) {
+                removeStack(node);
+                prune();
+            }
+        }
+        victim = null;
+    }
+
+    /**
+     * Resizes the sets, turning the oldest LIR entries into resident HIR ones
+     * and forgetting the oldest non-resident keys as needed.
+     */
+    @Override
+    public void setMaximumSize(int maximumSize) {
+        sizeSets(maximumSize);
+        while (lirCount > maxLir) {
+            demoteBottom();
+            lirCount--;
+        }
+        trimGhosts();
+    }
+
+    @Override
+    public Map.Entry<K, V> selectVictim() {
+        victim = queue.first != null ? queue.first : stackBottom;
+        return victim == null ? null : victim.entry;
+    }
+
+    private void trimGhosts() {
+        while (ghostQueue.size > maxGhosts) {
+            Node<K, V> ghost = ghostQueue.first;
+            ghostQueue.remove(ghost);
+            ghosts.remove(ghost.key);
+            removeStack(ghost);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Node<K, V> nodeOf(LruHashMap.PolicyEntry<K, V> entry) {
+        return (Node<K, V>) entry.policyState;
+    }
+
+    private void promote(Node<K, V> node) {
+        node.lir = true;
+        if (lirCount < maxLir)
+            lirCount++;
+        else
+            demoteBottom();
+    }
+
+    /**
+     * Turns the oldest LIR entry into a resident HIR one, after another entry
+     * became LIR.
+     */
+    private void demoteBottom() {
+        Node<K, V> bottom = stackBottom;
+        bottom.lir = false;
+        removeStack(bottom);
+        queue.add(bottom);
+        prune();
+    }
+
+    /**
+     * Removes the HIR entries from the bottom of S, so that it ends with the
+     * oldest LIR entry. Non-resident keys removed from S are forgotten.
+     */
+    private void prune() {
+        Node<K, V> node;
+        while ((node = stackBottom) != null && !node.lir) {
+            removeStack(node);
+            if (node.entry == null) {
+                ghostQueue.remove(node);
+                ghosts.remove(node.key);
+            }
+        }
+    }
+
+    private void moveToTop(Node<K, V> node) {
+        if (node.inStack)
+            removeStack(node);
+        pushStack(node);
+    }
+
+    private void pushStack(Node<K, V> node) {
+        node.stackPrev = null;
+        node.stackNext = stackTop;
+        if (stackTop != null)
+            stackTop.stackPrev = node;
+        else
+            stackBottom = node;
+        stackTop = node;
+        node.inStack = true;
+    }
+
+    private void removeStack(Node<K, V> node) {
+        if (node.stackPrev != null)
+            node.stackPrev.stackNext = node.stackNext;
+        else
+            stackTop = node.stackNext;
+        if (node.stackNext != null)
+            node.stackNext.stackPrev = node.stackPrev;
+        else
+            stackBottom = node.stackPrev;
+        node.stackPrev = null;
+        node.stackNext = null;
+        node.inStack = false;
+    }
+}
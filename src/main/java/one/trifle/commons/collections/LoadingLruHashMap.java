@@ -0,0 +1,165 @@
+package one.trifle.commons.collections;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+import static one.trifle.commons.collections.LruHashMap.spread;
+
+/**
+ * A {@link ConcurrentLruHashMap} which computes missing values on demand.
+ * <p>
+ * Concurrent misses of the same key are deduplicated: the first thread runs
+ * the loader while the others wait for its result instead of invoking the
+ * loader themselves. The load runs outside of any segment lock, so it never
+ * delays operations on other keys, including other loads.
+ */
+public class LoadingLruHashMap<K, V> extends ConcurrentLruHashMap<K, V> {
+    /**
+     * Loads in flight, by key.
+     */
+    private transient final ConcurrentMap<K, Loading<V>> loadings = new ConcurrentHashMap<K, Loading<V>>();
+
+    /**
+     * Creates a new, empty map with the default concurrency level.
+     *
+     * @param size the maximum number of entries
+     */
+    public LoadingLruHashMap(int size) {
+        super(size);
+    }
+
+    /**
+     * Creates a new, empty map.
+     *
+     * @param size             the maximum number of entries
+     * @param concurrencyLevel the estimated number of concurrently updating
+     *                         threads, used to pick the number of segments
+     * @see ConcurrentLruHashMap#ConcurrentLruHashMap(int, int)
+     */
+    public LoadingLruHashMap(int size, int concurrencyLevel) {
+        super(size, concurrencyLevel);
+    }
+
+    /**
+     * Creates a new, empty map.
+     *
+     * @param size             the maximum number of entries
+     * @param concurrencyLevel the estimated number of concurrently updating
+     *                         threads, used to pick the number of segments
+     * @param bufferedReads    if {@code true} hits are recorded into read
+     *                         buffers and replayed in batches instead of
+     *                         locking the segment on every hit
+     * @see ConcurrentLruHashMap#ConcurrentLruHashMap(int, int, boolean)
+     */
+    public LoadingLruHashMap(int size, int concurrencyLevel, boolean bufferedReads) {
+        super(size, concurrencyLevel, bufferedReads);
+    }
+
+    /**
+     * Returns the value of the key, loading it if it is missing. If another
+     * thread is already loading the key, waits for that load and returns its
+     * result instead of invoking the loader.
+     *
+     * @param key    the key
+     * @param loader computes the value if the key is missing
+     * @return the value, or {@code null} if the loader found none
+     * @throws RuntimeException if the load failed, the exception thrown by
+     *                          the loader; waiting threads get the same
+     *                          exception, even a checked one
+     */
+    public V get(K key, CacheLoader<? super K, ? extends V> loader) {
+        if (key == null || loader == null) throw new NullPointerException();
+        V value = get(key);
+        if (value != null)
+            return value;
+
+        Loading<V> loading = new Loading<V>();
+        Loading<V> inFlight = loadings.putIfAbsent(key, loading);
+        if (inFlight != null)
+            return inFlight.await();
+        try {
+            value = getQuietly(key); // a load may have finished between the miss and now
+            if (value == null) {
+                value = load(key, loader);
+                if (value != null) {
+                    V present = putIfAbsent(key, value);
+                    if (present != null)
+                        value = present;
+                }
+            }
+            loading.complete(value, null);
+            return value;
+        } catch (Throwable e) { // including checked exceptions thrown sneakily by the loader
+            loading.complete(null, e);
+            throw e;
+        } finally {
+            loadings.remove(key, loading);
+        }
+    }
+
+    private V load(K key, CacheLoader<? super K, ? extends V> loader) {
+        StatsCounter counter = stats;
+        if (counter == null)
+            return loader.load(key);
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            V value = loader.load(key);
+            success = true;
+            return value;
+        } finally {
+            long loadTime = System.nanoTime() - start;
+            if (success)
+                counter.recordLoadSuccess(loadTime);
+            else
+                counter.recordLoadFailure(loadTime);
+        }
+    }
+
+    private V getQuietly(Object key) {
+        int hash = spread(key.hashCode());
+        ConcurrentLruHashMap.Entry<K, V> entry = segmentFor(hash).getEntry(hash, key);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * The result of a load which other threads may wait for.
+     */
+    static final class Loading<V> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private V value;
+        private Throwable failure;
+
+        void complete(V value, Throwable failure) {
+            this.value = value;
+            this.failure = failure;
+            done.countDown();
+        }
+
+        V await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            if (failure != null)
+                throw Loading.<RuntimeException>rethrow(failure);
+            return value;
+        }
+
+        /**
+         * Throws the failure of the load as is, even if it is checked.
+         */
+        @SuppressWarnings("unchecked")
+        private static <T extends Throwable> T rethrow(Throwable failure) throws T {
+            throw (T) failure;
+        }
+    }
+}
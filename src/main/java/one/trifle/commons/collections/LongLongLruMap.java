@@ -0,0 +1,262 @@
+package one.trifle.commons.collections;
+
+import java.util.Arrays;
+
+/**
+ * A least recently used map from {@code long} to {@code long} kept entirely
+ * in primitive arrays, so it creates no object per entry and its footprint
+ * is fixed at construction: about 32 bytes per entry of capacity.
+ * <p>
+ * Entries live in parallel arrays of keys, values and the previous and next
+ * indexes of the access list. The hash index is an open addressing table of
+ * entry indexes with linear probing and backward shift deletion, sized to a
+ * load factor of at most 0.75. Removed entries are reused through a free
+ * list threaded through the next indexes.
+ * <p>
+ * This class is not thread safe.
+ */
+public class LongLongLruMap {
+    private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+    private static final int MAXIMUM_INDEX_CAPACITY = 1 << 30;
+    private static final int NIL = -1;
+
+    private final int capacity;
+    private final long[] keys;
+    private final long[] values;
+    private final int[] prev;
+    private final int[] next;
+    /**
+     * Entry index plus one per slot; {@code 0} marks an empty slot.
+     */
+    private final int[] index;
+    private final int mask;
+    private final int shift;
+    private int size;
+    private int used;
+    private int head = NIL;
+    private int tail = NIL;
+    private int free = NIL;
+
+    /**
+     * @param capacity the maximum number of entries
+     * @throws IllegalArgumentException if the capacity is negative or too large
+     */
+    public LongLongLruMap(int capacity) {
+        if (capacity < 0 || capacity > MAXIMUM_INDEX_CAPACITY / 4 * 3)
+            throw new IllegalArgumentException();
+        int indexCapacity = 2;
+        while (indexCapacity < capacity / 0.75)
+            indexCapacity <<= 1;
+        this.capacity = capacity;
+        this.keys = new long[capacity];
+        this.values = new long[capacity];
+        this.prev = new int[capacity];
+        this.next = new int[capacity];
+        this.index = new int[indexCapacity];
+        this.mask = indexCapacity - 1;
+        this.shift = 64 - Integer.numberOfTrailingZeros(indexCapacity);
+    }
+
+    /**
+     * @return the maximum number of entries
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return {@code true} if there are no entries
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns whether the key is mapped, without making it recently used.
+     *
+     * @param key the key
+     * @return {@code true} if the key is mapped
+     */
+    public boolean containsKey(long key) {
+        return findSlot(key) >= 0;
+    }
+
+    /**
+     * Returns the value of the key and makes it the most recently used.
+     *
+     * @param key          the key
+     * @param defaultValue the value to return if the key is not mapped
+     * @return the value, or {@code defaultValue} if the key is not mapped
+     */
+    public long get(long key, long defaultValue) {
+        int slot = findSlot(key);
+        if (slot < 0)
+            return defaultValue;
+        int entry = index[slot] - 1;
+        moveToFront(entry);
+        return values[entry];
+    }
+
+    /**
+     * Maps the key to the value and makes it the most recently used, evicting
+     * the least recently used entry if the map is full.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    public void put(long key, long value) {
+        int entry = findOrInsert(key, value);
+        if (entry != NIL)
+            values[entry] = value;
+    }
+
+    /**
+     * Adds the delta to the value of the key, treating a missing key as
+     * mapped to {@code 0}, and makes it the most recently used.
+     *
+     * @param key   the key
+     * @param delta the amount to add
+     * @return the new value
+     */
+    public long addTo(long key, long delta) {
+        int entry = findOrInsert(key, 0);
+        if (entry == NIL)
+            return delta;
+        return values[entry] += delta;
+    }
+
+    /**
+     * Removes the mapping of the key.
+     *
+     * @param key the key
+     * @return {@code true} if the key was mapped
+     */
+    public boolean remove(long key) {
+        int slot = findSlot(key);
+        if (slot < 0)
+            return false;
+        removeAt(slot);
+        return true;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        Arrays.fill(index, 0);
+        size = 0;
+        used = 0;
+        head = NIL;
+        tail = NIL;
+        free = NIL;
+    }
+
+    /**
+     * Returns the entry of the key as the most recently used, inserting it
+     * with the initial value if it is missing.
+     *
+     * @return the entry, or {@link #NIL} if the capacity is zero
+     */
+    private int findOrInsert(long key, long initialValue) {
+        int slot = findSlot(key);
+        if (slot >= 0) {
+            int entry = index[slot] - 1;
+            moveToFront(entry);
+            return entry;
+        }
+        if (capacity == 0)
+            return NIL;
+        if (size == capacity) {
+            removeAt(findSlot(keys[tail]));
+            slot = findSlot(key); // the deletion may have shifted the insertion point
+        }
+        int entry;
+        if (free != NIL) {
+            entry = free;
+            free = next[entry];
+        } else {
+            entry = used++;
+        }
+        keys[entry] = key;
+        values[entry] = initialValue;
+        index[~slot] = entry + 1;
+        linkFirst(entry);
+        size++;
+        return entry;
+    }
+
+    /**
+     * Returns the slot of the key, or the complement of the empty slot where
+     * it would be inserted.
+     */
+    private int findSlot(long key) {
+        int slot = home(key);
+        int entry;
+        while ((entry = index[slot]) != 0) {
+            if (keys[entry - 1] == key)
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return ~slot;
+    }
+
+    private int home(long key) {
+        return (int) ((key * GOLDEN_RATIO) >>> shift);
+    }
+
+    private void removeAt(int slot) {
+        int entry = index[slot] - 1;
+        int gap = slot;
+        int cur = slot;
+        int e;
+        while ((e = index[cur = (cur + 1) & mask]) != 0) {
+            int home = home(keys[e - 1]);
+            if (((cur - home) & mask) >= ((cur - gap) & mask)) {
+                index[gap] = e;
+                gap = cur;
+            }
+        }
+        index[gap] = 0;
+        unlink(entry);
+        next[entry] = free;
+        free = entry;
+        size--;
+    }
+
+    private void linkFirst(int entry) {
+        prev[entry] = NIL;
+        next[entry] = head;
+        if (head != NIL)
+            prev[head] = entry;
+        else
+            tail = entry;
+        head = entry;
+    }
+
+    private void unlink(int entry) {
+        int before = prev[entry];
+        int after = next[entry];
+        if (before != NIL)
+            next[before] = after;
+        else
+            head = after;
+        if (after != NIL)
+            prev[after] = before;
+        else
+            tail = before;
+    }
+
+    private void moveToFront(int entry) {
+        if (entry != head) {
+            unlink(entry);
+            linkFirst(entry);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package one.trifle.commons.collections;
+
+import java.util.Arrays;
+
+/**
+ * A least recently used map specialized for primitive {@code long} keys. Keys
+ * are stored unboxed in the entries, so lookups allocate nothing and an entry
+ * costs one node instead of a node and a {@link Long}.
+ * <p>
+ * Like {@link LruHashMap}, the map holds at most {@code size} entries and
+ * evicts the least recently used one on overflow; reads and updates make an
+ * entry the most recently used. This class is not thread safe.
+ *
+ * @param <V> the type of values
+ */
+public class LongLruHashMap<V> {
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    private final int maxSize;
+    private final Entry<V>[] table;
+    private int size;
+    private Entry<V> root;
+    private Entry<V> last;
+
+    /**
+     * @param size the maximum number of entries
+     * @throws IllegalArgumentException if the size is negative
+     */
+    @SuppressWarnings("unchecked")
+    public LongLruHashMap(int size) {
+        if (size < 0) throw new IllegalArgumentException();
+        int capacity = 1;
+        while (capacity < size / LOAD_FACTOR && capacity < MAXIMUM_CAPACITY)
+            capacity <<= 1;
+        this.table = new Entry[capacity];
+        this.maxSize = size;
+    }
+
+    /**
+     * Spreads the bits of a {@code long} key into a non-negative {@code int}
+     * hash, folding the high half into the low one first.
+     */
+    static int spread(long key) {
+        return LruHashMap.spread((int) (key ^ (key >>> 32)));
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return {@code true} if there are no entries
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns whether the key is mapped, without making it recently used.
+     *
+     * @param key the key
+     * @return {@code true} if the key is mapped
+     */
+    public boolean containsKey(long key) {
+        return getEntry(key) != null;
+    }
+
+    /**
+     * Returns the value of the key and makes it the most recently used.
+     *
+     * @param key the key
+     * @return the value, or {@code null} if the key is not mapped
+     */
+    public V get(long key) {
+        Entry<V> entry = getEntry(key);
+        if (entry == null)
+            return null;
+        moveToFront(entry);
+        return entry.value;
+    }
+
+    /**
+     * Maps the key to the value and makes it the most recently used, evicting
+     * the least recently used entry if the map overflows.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the previous value, or {@code null} if the key was not mapped
+     * @throws NullPointerException if the value is null
+     */
+    public V put(long key, V value) {
+        if (value == null) throw new NullPointerException();
+        int backed = LruHashMap.backed(table.length, spread(key));
+        for (Entry<V> entry = table[backed]; entry != null; entry = entry.next) {
+            if (entry.key == key) {
+                V oldValue = entry.value;
+                entry.value = value;
+                moveToFront(entry);
+                return oldValue;
+            }
+        }
+        Entry<V> entry = new Entry<V>(key, value, table[backed]);
+        table[backed] = entry;
+        linkFirst(entry);
+        size++;
+        while (size > maxSize && last != null)
+            removeEntry(last);
+        return null;
+    }
+
+    /**
+     * Removes the mapping of the key.
+     *
+     * @param key the key
+     * @return the removed value, or {@code null} if the key was not mapped
+     */
+    public V remove(long key) {
+        Entry<V> entry = getEntry(key);
+        if (entry == null)
+            return null;
+        removeEntry(entry);
+        return entry.value;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        Arrays.fill(table, null);
+        root = null;
+        last = null;
+        size = 0;
+    }
+
+    private Entry<V> getEntry(long key) {
+        Entry<V> entry = table[LruHashMap.backed(table.length, spread(key))];
+        while (entry != null && entry.key != key)
+            entry = entry.next;
+        return entry;
+    }
+
+    private void removeEntry(Entry<V> entry) {
+        int backed = LruHashMap.backed(table.length, spread(entry.key));
+        Entry<V> cur = table[backed];
+        if (cur == entry) {
+            table[backed] = entry.next;
+        } else {
+            while (cur.next != entry)
+                cur = cur.next;
+            cur.next = entry.next;
+        }
+        unlink(entry);
+        size--;
+    }
+
+    private void linkFirst(Entry<V> entry) {
+        entry.before = null;
+        entry.after = root;
+        if (root != null)
+            root.before = entry;
+        else
+            last = entry;
+        root = entry;
+    }
+
+    private void unlink(Entry<V> entry) {
+        if (entry.before != null)
+            entry.before.after = entry.after;
+        else
+            root = entry.after;
+        if (entry.after != null)
+            entry.after.before = entry.before;
+        else
+            last = entry.before;
+        entry.before = null;
+        entry.after = null;
+    }
+
+    private void moveToFront(Entry<V> entry) {
+        if (entry != root) {
+            unlink(entry);
+            linkFirst(entry);
+        }
+    }
+
+    /**
+     * Node of the map, linked into its bucket and into the access list.
+     */
+    static final class Entry<V> {
+        final long key;
+        V value;
+        Entry<V> next;
+        Entry<V> before, after;
+
+        Entry(long key, V value, Entry<V> next) {
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+    }
+}
@@ -3,7 +3,12 @@ package one.trifle.commons.collections;
 import one.trifle.commons.utils.Objects;
 
 import java.io.Serializable;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 public class LruHashMap<K, V> extends AbstractMap<K, V>
         implements Map<K, V>, Serializable {
@@ -16,22 +21,404 @@ public class LruHashMap<K, V> extends AbstractMap<K, V>
      */
     private static final float LOAD_FACTOR = 0.75f;
     private static final int HASH_BITS = 0x7fffffff; // usable bits of normal node hash
-    private final int maxSize;
     /**
-     * The array of bins. Lazily initialized upon first insertion.
+     * The capacity of the table of a map without an expected size; the table
+     * doubles from there as entries are added.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    /**
+     * The chain length at which a bin of mutually comparable keys is indexed
+     * by a tree, and the length at or below which the tree is dropped again.
+     */
+    private static final int TREEIFY_THRESHOLD = 8;
+    private static final int UNTREEIFY_THRESHOLD = 6;
+    /**
+     * The longest supported expiration duration, about 146 years. Also used
+     * for a disabled expiration so deadlines can be computed without checks.
+     */
+    static final long MAXIMUM_EXPIRY = Long.MAX_VALUE >> 1;
+    private int maxSize;
+    private final long maxWeight;
+    private final Weigher<? super K, ? super V> weigher;
+    /**
+     * The array of bins. Starts small and doubles as entries are added.
      * Size is always a power of two. Accessed directly by iterators.
      */
-    private transient final Entry<K, V>[] table;
+    private transient Entry<K, V>[] table;
+    /**
+     * The size above which the table is doubled.
+     */
+    private transient int threshold;
+    /**
+     * The tree indexes of long bins, parallel to the table, or {@code null}
+     * until a bin is treeified.
+     */
+    private transient TreeBin<K, V>[] trees;
+    /**
+     * Mixed into the hash codes of keys, or {@code 0} for plain hashing.
+     */
+    private int seed;
     private int size = 0;
-    private Entry<K, V> root;
-    private Entry<K, V> last;
+    private long weight = 0;
+    private final EvictionPolicy<K, V> policy;
+    /**
+     * The policy if it is the default least recently used one, so that the
+     * hot paths call it statically bound rather than through the interface.
+     */
+    private final LruPolicy<K, V> lru;
+    /**
+     * Whether the policy is SIEVE, whose hits only mark the entry visited.
+     */
+    private final boolean sieve;
+    /**
+     * Whether the policy keeps state on the entries, so that they are
+     * created as {@link PolicyEntry}. The LRU and FIFO policies only link
+     * the entries.
+     */
+    private final boolean policyEntries;
     private transient int modCount = 0;
     private transient EntrySet entrySet;
+    private transient EntrySet descendingEntrySet;
+    /**
+     * Whether {@link #containsKey} counts as a read of the entry.
+     */
+    private boolean promoteOnContainsKey = true;
+    private long expireAfterWriteNanos = MAXIMUM_EXPIRY;
+    private long expireAfterAccessNanos = MAXIMUM_EXPIRY;
+    private Expiry<? super K, ? super V> expiry;
+    /**
+     * Reclaims expired entries, null unless expiration is enabled.
+     */
+    private transient TimerWheel<K, V> wheel;
+    private transient Ticker ticker = Ticker.SYSTEM;
+    /**
+     * The statistics, or {@code null} until they are enabled.
+     */
+    private transient StatsCounter stats;
+    /**
+     * Delivers removal notifications, or {@code null} if there is no listener.
+     */
+    private transient RemovalNotifier<K, V> notifier;
 
-    @SuppressWarnings("unchecked")
     public LruHashMap(int size) {
-        table = new Entry[(int) ((size / LOAD_FACTOR) + 1)];
-        this.maxSize = size;
+        this(size, EvictionPolicy.<K, V>lru());
+    }
+
+    /**
+     * Constructs a map bounded by the number of entries which evicts the
+     * entries chosen by the policy.
+     *
+     * @param size   the maximum number of entries
+     * @param policy selects the entries to evict
+     * @throws NullPointerException if the policy is null
+     */
+    public LruHashMap(int size, EvictionPolicy<K, V> policy) {
+        this(0, size, Long.MAX_VALUE, null, policy);
+    }
+
+    /**
+     * Constructs a map bounded by the total weight of its entries. The weight
+     * of an entry is calculated by the weigher when its value is put and is
+     * cached in the entry; least recently used entries are evicted until the
+     * total weight is not greater than {@code maxWeight}. Values replaced via
+     * {@link Map.Entry#setValue} keep the weight of the previous value.
+     *
+     * @param expectedSize the expected number of entries, used to size the table
+     * @param maxWeight    the maximum total weight of the entries
+     * @param weigher      calculates the weight of an entry
+     * @throws IllegalArgumentException if {@code maxWeight} is negative
+     * @throws NullPointerException     if the weigher is null
+     */
+    public LruHashMap(int expectedSize, long maxWeight, Weigher<? super K, ? super V> weigher) {
+        this(expectedSize, maxWeight, weigher, EvictionPolicy.<K, V>lru());
+    }
+
+    /**
+     * Constructs a map bounded by the total weight of its entries which
+     * evicts the entries chosen by the policy.
+     *
+     * @param expectedSize the expected number of entries, used to size the table
+     * @param maxWeight    the maximum total weight of the entries
+     * @param weigher      calculates the weight of an entry
+     * @param policy       selects the entries to evict
+     * @throws IllegalArgumentException if {@code maxWeight} is negative
+     * @throws NullPointerException     if the weigher or the policy is null
+     * @see #LruHashMap(int, long, Weigher)
+     */
+    public LruHashMap(int expectedSize, long maxWeight, Weigher<? super K, ? super V> weigher,
+                      EvictionPolicy<K, V> policy) {
+        this(expectedSize, Integer.MAX_VALUE, maxWeight, weigher, policy);
+        if (weigher == null) throw new NullPointerException();
+    }
+
+    @SuppressWarnings("unchecked")
+    private LruHashMap(int expectedSize, int maxSize, long maxWeight, Weigher<? super K, ? super V> weigher,
+                       EvictionPolicy<K, V> policy) {
+        if (maxWeight < 0) throw new IllegalArgumentException();
+        if (policy == null) throw new NullPointerException();
+        if (maxSize < 0) throw new IllegalArgumentException();
+        int capacity = INITIAL_CAPACITY;
+        while (capacity * LOAD_FACTOR < expectedSize && capacity < MAXIMUM_CAPACITY)
+            capacity <<= 1;
+        table = new Entry[capacity];
+        threshold = (int) (capacity * LOAD_FACTOR);
+        this.maxSize = maxSize;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.policy = policy;
+        this.lru = policy instanceof LruPolicy ? (LruPolicy<K, V>) policy : null;
+        this.sieve = policy instanceof SievePolicy;
+        this.policyEntries = !(policy instanceof LruPolicy || policy instanceof FifoPolicy);
+    }
+
+    /**
+     * Makes entries expire once the duration has elapsed since their value
+     * was last put. Expired entries are reclaimed by a hierarchical timer
+     * wheel which is advanced on every put and by {@link #cleanUp()}, and
+     * lookups treat an expired entry as absent even before it is reclaimed.
+     * Entries already in the map are treated as written now when expiration
+     * is first enabled.
+     *
+     * @param duration the time to live of an entry
+     * @param unit     the unit of the duration
+     * @throws IllegalArgumentException if the duration is negative
+     * @throws IllegalStateException    if an {@link Expiry} is set
+     */
+    public void setExpireAfterWrite(long duration, TimeUnit unit) {
+        if (duration < 0) throw new IllegalArgumentException();
+        if (expiry != null) throw new IllegalStateException("expiry is already set");
+        expireAfterWriteNanos = Math.min(unit.toNanos(duration), MAXIMUM_EXPIRY);
+        enableExpiration();
+    }
+
+    /**
+     * Makes entries expire once the duration has elapsed since their last
+     * put or read. Combined with {@link #setExpireAfterWrite} an entry
+     * expires at whichever deadline comes first.
+     *
+     * @param duration the time to idle of an entry
+     * @param unit     the unit of the duration
+     * @throws IllegalArgumentException if the duration is negative
+     * @throws IllegalStateException    if an {@link Expiry} is set
+     * @see #setExpireAfterWrite
+     */
+    public void setExpireAfterAccess(long duration, TimeUnit unit) {
+        if (duration < 0) throw new IllegalArgumentException();
+        if (expiry != null) throw new IllegalStateException("expiry is already set");
+        expireAfterAccessNanos = Math.min(unit.toNanos(duration), MAXIMUM_EXPIRY);
+        enableExpiration();
+    }
+
+    /**
+     * Makes every entry expire at a deadline of its own, calculated by the
+     * expiry when the entry is created, updated or read. The deadlines are
+     * kept in the same timer wheel as fixed durations, so mixing short and
+     * long lifetimes costs O(1) per operation. Entries already in the map are
+     * treated as created now when expiration is first enabled.
+     *
+     * @param expiry calculates the lifetime of the entries
+     * @throws IllegalStateException if a fixed expiration duration is set
+     * @throws NullPointerException  if the expiry is null
+     * @see #setExpireAfterWrite
+     */
+    public void setExpiry(Expiry<? super K, ? super V> expiry) {
+        if (expiry == null) throw new NullPointerException();
+        if (expireAfterWriteNanos != MAXIMUM_EXPIRY || expireAfterAccessNanos != MAXIMUM_EXPIRY)
+            throw new IllegalStateException("expiration duration is already set");
+        this.expiry = expiry;
+        enableExpiration();
+    }
+
+    /**
+     * Reclaims the entries which have expired. Puts do this as well; a map
+     * with few writes may call it from a maintenance thread, holding the
+     * same lock that guards every other access to the map.
+     */
+    public void cleanUp() {
+        if (wheel != null)
+            wheel.advance(ticker.read());
+    }
+
+    /**
+     * Starts recording hits, misses, evictions and loads. Statistics are off
+     * by default and cost a few striped counter updates per operation once
+     * enabled. Calling this again keeps the counts recorded so far.
+     *
+     * @see #stats()
+     */
+    public void recordStats() {
+        if (stats == null)
+            stats = new StatsCounter();
+    }
+
+    /**
+     * Returns a snapshot of the statistics recorded since
+     * {@link #recordStats()} was called, or empty statistics if they are not
+     * recorded.
+     *
+     * @return the statistics
+     */
+    public CacheStats stats() {
+        return stats == null ? CacheStats.empty() : stats.snapshot();
+    }
+
+    /**
+     * Sets the listener notified on the calling thread whenever an entry is
+     * removed, evicted, expires or has its value replaced.
+     *
+     * @param listener the listener, or {@code null} to remove it
+     */
+    public void setRemovalListener(RemovalListener<? super K, ? super V> listener) {
+        notifier = listener == null ? null : new RemovalNotifier<K, V>(listener, null);
+    }
+
+    /**
+     * Sets the listener notified whenever an entry is removed, evicted,
+     * expires or has its value replaced. Notifications are queued into a
+     * bounded buffer which the executor drains in batches, so a slow listener
+     * does not delay the operation which removed the entry. If the buffer is
+     * full or the executor rejects the drain, the notification is delivered
+     * on the calling thread instead of being dropped.
+     *
+     * @param listener the listener
+     * @param executor runs the deliveries
+     * @throws NullPointerException if the listener or the executor is null
+     */
+    public void setRemovalListener(RemovalListener<? super K, ? super V> listener, Executor executor) {
+        if (listener == null || executor == null) throw new NullPointerException();
+        notifier = new RemovalNotifier<K, V>(listener, executor);
+    }
+
+    /**
+     * Returns the maximum number of entries this map may hold.
+     *
+     * @return the current bound, or {@link Integer#MAX_VALUE} if the map is
+     * only bounded by weight
+     */
+    public int maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Changes the maximum number of entries. Shrinking evicts the entries
+     * chosen by the policy, notifying the removal listener, until the map
+     * fits the new bound; growing lets the table grow further as entries are
+     * added. A map bounded by weight is additionally bounded by the size.
+     * The table itself is never shrunk.
+     *
+     * @param maximumSize the new maximum number of entries
+     * @throws IllegalArgumentException if {@code maximumSize} is negative
+     */
+    public void setMaximumSize(int maximumSize) {
+        if (maximumSize < 0) throw new IllegalArgumentException();
+        maxSize = maximumSize;
+        policy.setMaximumSize(maximumSize);
+        removeTail();
+    }
+
+    void setTicker(Ticker ticker) {
+        this.ticker = ticker;
+    }
+
+    private void enableExpiration() {
+        if (wheel != null)
+            return;
+        long now = ticker.read();
+        wheel = new TimerWheel<K, V>(this, now);
+        if (size > 0)
+            replaceWithTimedEntries();
+        for (Entry<K, V> bucket : table)
+            for (Entry<K, V> entry = bucket; entry != null; entry = entry.next)
+                scheduleExpiration(entry, now, true);
+    }
+
+    /**
+     * Replaces the entries by timed copies once expiration is enabled. The
+     * copies are handed to the policy as new entries, in access order for
+     * the LRU policy, so other policies forget what they learnt so far.
+     */
+    @SuppressWarnings("unchecked")
+    private void replaceWithTimedEntries() {
+        Entry<K, V>[] entries = new Entry[size];
+        int i = 0;
+        if (lru != null) {
+            for (Entry<K, V> entry = lru.deque.last; entry != null; entry = entry.before)
+                entries[i++] = entry;
+        } else {
+            for (Entry<K, V> bucket : table)
+                for (Entry<K, V> entry = bucket; entry != null; entry = entry.next)
+                    entries[i++] = entry;
+        }
+        for (Entry<K, V> entry : entries)
+            onRemove(entry);
+        for (Entry<K, V> entry : entries) {
+            Entry<K, V> copy = newEntry(entry.hash, entry.key, entry.value, entry.next);
+            if (weigher != null)
+                ((WeightedEntry<K, V>) copy).weight = entry.weight();
+            int backed = backed(table.length, entry.hash);
+            TreeBin<K, V> tree = trees != null ? trees[backed] : null;
+            Entry<K, V> prev = null;
+            if (tree != null) {
+                Map.Entry<Object, Entry<K, V>> lower = tree.entries.lowerEntry(entry.key);
+                prev = lower != null ? lower.getValue() : null;
+                tree.entries.put(entry.key, copy);
+            } else if (table[backed] != entry) {
+                prev = table[backed];
+                while (prev.next != entry)
+                    prev = prev.next;
+            }
+            if (prev == null)
+                table[backed] = copy;
+            else
+                prev.next = copy;
+            onInsert(copy);
+        }
+        if (lru == null)
+            policy.onEvictionEnd();
+        modCount++;
+    }
+
+    /**
+     * Sets the deadline of a written entry and moves it to the matching
+     * bucket of the timer wheel.
+     *
+     * @param created true if the entry is new or replaces an expired one
+     */
+    private void scheduleExpiration(Entry<K, V> e, long now, boolean created) {
+        if (wheel == null)
+            return;
+        TimedEntry<K, V> entry = (TimedEntry<K, V>) e;
+        if (expiry != null) {
+            long duration = created
+                    ? expiry.expireAfterCreate(entry.key, entry.value, now)
+                    : expiry.expireAfterUpdate(entry.key, entry.value, now, entry.expirationTime - now);
+            entry.expirationTime = now + boundedDuration(duration);
+        } else {
+            entry.writeTime = now;
+            entry.expirationTime = now + Math.min(expireAfterWriteNanos, expireAfterAccessNanos);
+        }
+        wheel.reschedule(entry);
+    }
+
+    private static long boundedDuration(long duration) {
+        return Math.max(0, Math.min(duration, MAXIMUM_EXPIRY));
+    }
+
+    private boolean hasExpired(Entry<K, V> entry, long now) {
+        return wheel != null && ((TimedEntry<K, V>) entry).expirationTime - now <= 0;
+    }
+
+    private boolean isLive(Entry<K, V> entry) {
+        return wheel == null || !hasExpired(entry, ticker.read());
+    }
+
+    /**
+     * Removes the entry on behalf of the timer wheel.
+     */
+    void expireEntry(Entry<K, V> entry) {
+        removeEntry(entry);
+        notifyRemoval(entry, entry.value, RemovalCause.EXPIRED);
     }
 
     static final int spread(int hash) {
@@ -42,15 +429,83 @@ public class LruHashMap<K, V> extends AbstractMap<K, V>
         return (length - 1) & hash;
     }
 
+    /**
+     * Returns the spread hash of the key, scrambled by the seed if hashing
+     * is randomized.
+     */
+    private int hash(Object key) {
+        int h = key.hashCode();
+        if (seed != 0) {
+            h = (h ^ seed) * 0x85ebca6b;
+            h = (h ^ (h >>> 13)) * 0xc2b2ae35;
+        }
+        return spread(h);
+    }
+
+    /**
+     * Mixes a random seed of this map into the hash codes of its keys, so
+     * that keys chosen to share a bin of one map do not collide in another.
+     * Keys with equal hash codes still share a bin; if they are mutually
+     * comparable a long bin is searched as a tree.
+     *
+     * @throws IllegalStateException if the map is not empty
+     */
+    public void randomizeHashSeed() {
+        if (size != 0) throw new IllegalStateException("map is not empty");
+        int seed;
+        do {
+            seed = ThreadLocalRandom.current().nextInt();
+        } while (seed == 0);
+        this.seed = seed;
+    }
+
     @Override
     public V put(K key, V value) {
         return putVal(key, value);
     }
 
+    /**
+     * Returns a view of the entries. With the default least recently used
+     * policy the entries are iterated in access order, least recently used
+     * first, in time proportional to the size; reading the map while it is
+     * iterated reorders it and fails the iterator. With other policies the
+     * entries are iterated in table order.
+     *
+     * @return the entries of the map
+     */
     @Override
     public Set<Map.Entry<K, V>> entrySet() {
         EntrySet es = entrySet;
-        return (es != null) ? es : (entrySet = new EntrySet());
+        return (es != null) ? es : (entrySet = new EntrySet(false));
+    }
+
+    /**
+     * Returns a view of the entries in access order, least recently used
+     * first, which is the order in which they are evicted.
+     *
+     * @return the entries of the map in ascending access order
+     * @throws UnsupportedOperationException if the map does not evict the
+     *                                       least recently used entry
+     * @see #entrySet()
+     */
+    public Set<Map.Entry<K, V>> ascendingEntrySet() {
+        if (lru == null) throw new UnsupportedOperationException("access order is kept by the lru policy only");
+        return entrySet();
+    }
+
+    /**
+     * Returns a view of the entries in access order, most recently used
+     * first.
+     *
+     * @return the entries of the map in descending access order
+     * @throws UnsupportedOperationException if the map does not evict the
+     *                                       least recently used entry
+     * @see #entrySet()
+     */
+    public Set<Map.Entry<K, V>> descendingEntrySet() {
+        if (lru == null) throw new UnsupportedOperationException("access order is kept by the lru policy only");
+        EntrySet es = descendingEntrySet;
+        return (es != null) ? es : (descendingEntrySet = new EntrySet(true));
     }
 
     @Override
@@ -58,24 +513,58 @@ public class LruHashMap<K, V> extends AbstractMap<K, V>
         return size;
     }
 
+    /**
+     * Returns the total weight of the entries, or {@code 0} if the map is
+     * not bounded by weight.
+     *
+     * @return the sum of the cached entry weights
+     */
+    public long weightedSize() {
+        return weight;
+    }
+
     @Override
     public boolean containsKey(Object key) {
-        int hash = spread(key.hashCode());
+        int hash = hash(key);
         Entry<K, V> entry = getEntry(hash, key);
-        if (entry != null) {
-            removeEntryFromStatistic(entry);
-            setHeadEntry(entry);
-        }
-        return entry != null;
+        if (entry == null)
+            return false;
+        return promoteOnContainsKey ? afterRead(entry) : isLive(entry);
+    }
+
+    /**
+     * Returns the value of the key without reading it: the eviction policy,
+     * the statistics and the expiration of the entry are left untouched, so
+     * diagnostics can probe the map without changing what it evicts. An
+     * expired entry is reported as absent but is not removed.
+     *
+     * @param key the key
+     * @return the value, or {@code null} if the key is not mapped
+     */
+    public V peek(Object key) {
+        Entry<K, V> entry = getEntry(hash(key), key);
+        return entry != null && isLive(entry) ? entry.value : null;
+    }
+
+    /**
+     * Sets whether {@link #containsKey} reads the entry like {@link #get},
+     * which is the default, or only looks it up like {@link #peek}.
+     *
+     * @param promote false to make {@code containsKey} a pure lookup
+     */
+    public void setPromoteOnContainsKey(boolean promote) {
+        promoteOnContainsKey = promote;
     }
 
     @Override
     public V remove(Object key) {
-        int hash = spread(key.hashCode());
+        int hash = hash(key);
         Entry<K, V> entry = getEntry(hash, key);
         if (entry != null) {
-            removeEntryFromStatistic(entry);
-            return removeEntry(entry);
+            boolean expired = wheel != null && hasExpired(entry, ticker.read());
+            V value = removeEntry(entry);
+            notifyRemoval(entry, value, expired ? RemovalCause.EXPIRED : RemovalCause.EXPLICIT);
+            return expired ? null : value;
         }
         return null;
     }
@@ -84,48 +573,381 @@ public class LruHashMap<K, V> extends AbstractMap<K, V>
      * Implementation for put and putIfAbsent
      */
     final V putVal(K key, V value) {
+        V oldVal = putVal(key, value, advanceTimerWheel());
+        removeTail(); // a new entry or a heavier value may overflow the bounds
+        return oldVal;
+    }
+
+    /**
+     * Inserts or replaces the mapping without evicting, so that a batch of
+     * puts ends the eviction pass of the policy once.
+     *
+     * @param now the current time if expiration is enabled
+     */
+    private V putVal(K key, V value, long now) {
         if (key == null || value == null) throw new NullPointerException();
-        int hash = spread(key.hashCode());
+        int hash = hash(key);
+        int weight = weigh(key, value);
         int backed = backed(table.length, hash);
+        TreeBin<K, V> tree = trees != null ? trees[backed] : null;
+        if (tree != null) {
+            Entry<K, V> cur = key.getClass() == tree.keyClass ? tree.entries.get(key) : null;
+            if (cur != null && Objects.equals(cur.key, key))
+                return replaceValue(cur, value, weight, now);
+            if (cur == null && key.getClass() == tree.keyClass) {
+                Entry<K, V> entry = newEntry(hash, key, value, null);
+                Map.Entry<Object, Entry<K, V>> lower = tree.entries.lowerEntry(key);
+                if (lower == null) {
+                    entry.next = table[backed];
+                    table[backed] = entry;
+                } else {
+                    entry.next = lower.getValue().next;
+                    lower.getValue().next = entry;
+                }
+                tree.entries.put(key, entry);
+                afterInsert(entry, weight, now);
+                return null;
+            }
+            // a key of another class, or one which compares equal to a key it
+            // does not equal, cannot be told apart by the tree: use the chain
+            trees[backed] = null;
+        }
         Entry<K, V> entry;
         if ((entry = table[backed]) == null) { // if not entry in backed
-            entry = table[backed] = new Entry<K, V>(hash, key, value, root, null, null);
+            entry = table[backed] = newEntry(hash, key, value, null);
+            afterInsert(entry, weight, now);
+            return null;
+        }
+        int binCount = 1;
+        Entry<K, V> cur = entry;
+        while (true) {
+            if (cur.hash == hash && Objects.equals(cur.key, key))
+                return replaceValue(cur, value, weight, now);
+            if (cur.next == null)
+                break;
+            cur = cur.next;
+            binCount++;
+        }
+        entry = cur.next = newEntry(hash, key, value, null);
+        if (binCount + 1 >= TREEIFY_THRESHOLD)
+            treeifyBin(backed);
+        afterInsert(entry, weight, now);
+        return null;
+    }
+
+    /**
+     * Creates an entry with only the fields the map uses: weighted if the
+     * map has a weigher, with policy state unless the policy is LRU or FIFO,
+     * timed if expiration is enabled.
+     */
+    private Entry<K, V> newEntry(int hash, K key, V value, Entry<K, V> next) {
+        if (wheel != null)
+            return new TimedEntry<K, V>(hash, key, value, next);
+        if (policyEntries)
+            return new PolicyEntry<K, V>(hash, key, value, next);
+        if (weigher != null)
+            return new WeightedEntry<K, V>(hash, key, value, next);
+        return new Entry<K, V>(hash, key, value, null, null, next);
+    }
+
+    private void afterInsert(Entry<K, V> entry, int weight, long now) {
+        if (weigher != null)
+            ((WeightedEntry<K, V>) entry).weight = weight;
+        this.weight += weight;
+        modCount++;
+        size++;
+        onInsert(entry);
+        scheduleExpiration(entry, now, true);
+        growIfNeeded();
+    }
+
+    /**
+     * Replaces the value of a mapped entry.
+     *
+     * @return the old value, or {@code null} if the entry had expired
+     */
+    private V replaceValue(Entry<K, V> entry, V value, int weight, long now) {
+        boolean expired = hasExpired(entry, now);
+        V oldVal = entry.setValue(value);
+        int oldWeight = entry.weight();
+        if (weigher != null) {
+            this.weight += weight - oldWeight;
+            ((WeightedEntry<K, V>) entry).weight = weight;
+        }
+        onAccess(entry);
+        scheduleExpiration(entry, now, expired);
+        notifyRemoval(entry.key, oldVal, oldWeight, expired ? RemovalCause.EXPIRED : RemovalCause.REPLACED);
+        if (expired) { // not reclaimed yet, but no longer mapped
             modCount++;
-            size++;
-            setHeadEntry(entry);
-            removeTail();
             return null;
-        } else {
-            V oldVal = null;
-            Entry<K, V> cur = entry;
-            do {
-                if (cur.hash == hash && Objects.equals(cur.key, key)) {
-                    oldVal = cur.setValue(value);
-                    removeEntryFromStatistic(cur);
-                    setHeadEntry(cur);
-                    break;
-                }
+        }
+        return oldVal;
+    }
 
-                if (cur.next == null) {
-                    setHeadEntry(cur.next = new Entry<K, V>(hash, key, value, root, null, null));
-                    size++;
-                    break;
+    /**
+     * Indexes a long bin by a tree if all its keys are of one class which is
+     * comparable to itself, relinking the chain in the order of the tree.
+     */
+    @SuppressWarnings("unchecked")
+    private void treeifyBin(int backed) {
+        Entry<K, V> first = table[backed];
+        Class<?> keyClass = comparableClassFor(first.key);
+        if (keyClass == null)
+            return;
+        TreeMap<Object, Entry<K, V>> entries = new TreeMap<Object, Entry<K, V>>(BIN_ORDER);
+        for (Entry<K, V> entry = first; entry != null; entry = entry.next) {
+            if (entry.key.getClass() != keyClass || entries.put(entry.key, entry) != null)
+                return; // another class, or keys the natural order cannot tell apart
+        }
+        Entry<K, V> last = null;
+        for (Entry<K, V> entry : entries.values()) {
+            if (last == null)
+                table[backed] = entry;
+            else
+                last.next = entry;
+            last = entry;
+        }
+        last.next = null;
+        if (trees == null)
+            trees = new TreeBin[table.length];
+        trees[backed] = new TreeBin<K, V>(keyClass, entries);
+    }
+
+    /**
+     * Returns the class of the object if it is {@code C implements
+     * Comparable<C>}, else {@code null}.
+     */
+    static Class<?> comparableClassFor(Object x) {
+        if (!(x instanceof Comparable))
+            return null;
+        Class<?> c = x.getClass();
+        if (c == String.class)
+            return c;
+        for (Class<?> type = c; type != null; type = type.getSuperclass()) {
+            for (Type t : type.getGenericInterfaces()) {
+                if (t instanceof ParameterizedType) {
+                    ParameterizedType p = (ParameterizedType) t;
+                    Type[] arguments = p.getActualTypeArguments();
+                    if (p.getRawType() == Comparable.class && arguments.length == 1 && arguments[0] == c)
+                        return c;
                 }
-            } while ((cur = cur.next) != null);
-            if (oldVal != null)
-                return oldVal;
+            }
         }
-        modCount++;
-        removeTail();
         return null;
     }
 
+    /**
+     * Reclaims the expired entries.
+     *
+     * @return the current time if expiration is enabled, {@code 0} otherwise
+     */
+    private long advanceTimerWheel() {
+        long now = 0;
+        if (wheel != null)
+            wheel.advance(now = ticker.read());
+        return now;
+    }
+
+    /**
+     * Copies all of the mappings from the specified map to this map. The
+     * mappings are inserted as a batch: the bounds are enforced as they go
+     * in, evicting the least recently used entries as a sequence of puts
+     * would, and the policy ends its eviction pass once for the batch.
+     *
+     * @param map mappings to be stored in this map
+     * @throws NullPointerException if a key or a value is null
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        long now = advanceTimerWheel();
+        try {
+            for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+                putVal(entry.getKey(), entry.getValue(), now);
+                evict(); // a batch larger than the bound would otherwise overload the table
+            }
+        } finally {
+            removeTail();
+        }
+    }
+
+    /**
+     * Returns the values of the keys, loading the missing ones with a single
+     * {@link CacheLoader#loadAll} call. The hits are found in one pass and
+     * promoted together, the loaded values are inserted as a batch like
+     * {@link #putAll}.
+     *
+     * @param keys   the keys, duplicates are looked up once
+     * @param loader loads the values of the missing keys
+     * @return the values by key, in the order of the keys, without the keys
+     * the loader found no value for
+     * @throws NullPointerException if a key is null
+     */
+    public Map<K, V> getAll(Iterable<? extends K> keys, CacheLoader<? super K, ? extends V> loader) {
+        long now = wheel != null ? ticker.read() : 0;
+        Map<K, V> result = new LinkedHashMap<K, V>(); // missing keys hold their place with null
+        Set<K> missing = new LinkedHashSet<K>();
+        List<Entry<K, V>> hits = new ArrayList<Entry<K, V>>();
+        for (K key : keys) {
+            if (result.containsKey(key))
+                continue;
+            Entry<K, V> entry = getEntry(hash(key), key);
+            if (entry != null && !hasExpired(entry, now)) {
+                result.put(key, entry.value);
+                hits.add(entry);
+            } else {
+                result.put(key, null);
+                missing.add(key);
+            }
+        }
+        for (Entry<K, V> entry : hits)
+            afterRead(entry, now);
+        if (stats != null) {
+            stats.recordHits(hits.size());
+            stats.recordMisses(missing.size());
+        }
+        if (missing.isEmpty())
+            return result;
+
+        Map<? super K, ? extends V> loaded = loadAll(missing, loader);
+        now = advanceTimerWheel();
+        try {
+            for (K key : missing) {
+                V value = loaded.get(key);
+                if (value != null) {
+                    putVal(key, value, now);
+                    evict();
+                    result.put(key, value);
+                } else {
+                    result.remove(key);
+                }
+            }
+        } finally {
+            removeTail();
+        }
+        return result;
+    }
+
+    private Map<? super K, ? extends V> loadAll(Set<K> keys, CacheLoader<? super K, ? extends V> loader) {
+        if (stats == null)
+            return loader.loadAll(Collections.unmodifiableSet(keys));
+        long start = ticker.read();
+        boolean success = false;
+        try {
+            Map<? super K, ? extends V> loaded = loader.loadAll(Collections.unmodifiableSet(keys));
+            success = true;
+            return loaded;
+        } finally {
+            long loadTime = Math.max(0, ticker.read() - start);
+            if (success)
+                stats.recordLoadSuccess(loadTime);
+            else
+                stats.recordLoadFailure(loadTime);
+        }
+    }
+
+    /**
+     * Doubles the table once it is loaded beyond the threshold. An insert
+     * which overflows the maximum size is about to be evicted, so it does
+     * not grow the table past the bound.
+     */
+    private void growIfNeeded() {
+        if (size > threshold && size <= maxSize && table.length < MAXIMUM_CAPACITY)
+            resize();
+    }
+
+    /**
+     * Doubles the table, splitting every bin into the bins at the same index
+     * and at the index plus the old capacity while keeping the order of the
+     * chains.
+     */
+    @SuppressWarnings("unchecked")
+    private void resize() {
+        Entry<K, V>[] oldTable = table;
+        int oldCapacity = oldTable.length;
+        Entry<K, V>[] newTable = new Entry[oldCapacity << 1];
+        TreeBin<K, V>[] oldTrees = trees;
+        table = newTable;
+        trees = null;
+        for (int i = 0; i < oldCapacity; i++) {
+            Entry<K, V> loHead = null, loTail = null, hiHead = null, hiTail = null;
+            int loCount = 0, hiCount = 0;
+            for (Entry<K, V> entry = oldTable[i], next; entry != null; entry = next) {
+                next = entry.next;
+                if ((entry.hash & oldCapacity) == 0) {
+                    if (loTail == null)
+                        loHead = entry;
+                    else
+                        loTail.next = entry;
+                    loTail = entry;
+                    loCount++;
+                } else {
+                    if (hiTail == null)
+                        hiHead = entry;
+                    else
+                        hiTail.next = entry;
+                    hiTail = entry;
+                    hiCount++;
+                }
+            }
+            if (loTail != null) {
+                loTail.next = null;
+                newTable[i] = loHead;
+            }
+            if (hiTail != null) {
+                hiTail.next = null;
+                newTable[i + oldCapacity] = hiHead;
+            }
+            if (oldTrees != null && oldTrees[i] != null) {
+                if (loCount > UNTREEIFY_THRESHOLD)
+                    treeifyBin(i);
+                if (hiCount > UNTREEIFY_THRESHOLD)
+                    treeifyBin(i + oldCapacity);
+            }
+        }
+        threshold = (int) (newTable.length * LOAD_FACTOR);
+    }
+
     private void removeTail() {
-        while (size > maxSize && last != null) {
-            removeEntry(last);
+        evict();
+        if (lru == null)
+            policy.onEvictionEnd();
+    }
+
+    /**
+     * Evicts until the map fits its bounds, without ending the eviction pass
+     * of the policy, so that a batch stays bounded while it is inserted.
+     */
+    private void evict() {
+        Entry<K, V> victim;
+        while ((size > maxSize || weight > maxWeight) && (victim = selectVictim()) != null) {
+            removeEntry(victim);
+            notifyRemoval(victim, victim.value, RemovalCause.SIZE);
         }
     }
 
+    private void notifyRemoval(Entry<K, V> entry, V value, RemovalCause cause) {
+        notifyRemoval(entry.key, value, entry.weight(), cause);
+    }
+
+    /**
+     * Records an eviction and notifies the listener, once the map is
+     * consistent again.
+     */
+    private void notifyRemoval(K key, V value, int weight, RemovalCause cause) {
+        if (stats != null && cause.wasEvicted())
+            stats.recordEviction(weigher == null ? 1 : weight);
+        if (notifier != null)
+            notifier.notify(key, value, cause);
+    }
+
+    private int weigh(K key, V value) {
+        if (weigher == null)
+            return 0;
+        int weight = weigher.weigh(key, value);
+        if (weight < 0) throw new IllegalArgumentException("negative weight " + weight);
+        return weight;
+    }
+
     /**
      * Implements Map.get and related methods
      *
@@ -135,7 +957,14 @@ public class LruHashMap<K, V> extends AbstractMap<K, V>
      */
     final Entry<K, V> getEntry(int hash, Object key) {
         Entry<K, V> first, entry;
-        if ((first = table[backed(table.length, hash)]) != null) {
+        int backed = backed(table.length, hash);
+        TreeBin<K, V> tree;
+        if (trees != null && (tree = trees[backed]) != null && key.getClass() == tree.keyClass) {
+            // the tree only steers the search, equals decides the match
+            if ((entry = tree.entries.get(key)) == null || Objects.equals(entry.key, key))
+                return entry;
+        }
+        if ((first = table[backed]) != null) {
             if (first.hash == hash && // always check first node
                     Objects.equals(first.key, key)) {
                 return first;
@@ -153,22 +982,78 @@ public class LruHashMap<K, V> extends AbstractMap<K, V>
 
     @Override
     public V get(Object key) {
-        int hash = spread(key.hashCode());
+        int hash = hash(key);
         Entry<K, V> entry = getEntry(hash, key);
-        if (entry != null) {
-            removeEntryFromStatistic(entry);
-            setHeadEntry(entry);
+        if (entry != null && afterRead(entry)) {
+            if (stats != null)
+                stats.recordHits(1);
             return entry.value;
         }
+        if (stats != null)
+            stats.recordMisses(1);
         return null;
     }
 
+    /**
+     * Reports a hit to the eviction policy and extends its lifetime if it
+     * expires after access. An expired entry is removed instead.
+     *
+     * @param entry the entry which was found
+     * @return false if the entry has expired
+     */
+    private boolean afterRead(Entry<K, V> entry) {
+        return afterRead(entry, wheel != null ? ticker.read() : 0);
+    }
+
+    private boolean afterRead(Entry<K, V> entry, long now) {
+        if (wheel != null) {
+            if (hasExpired(entry, now)) {
+                removeEntry(entry);
+                notifyRemoval(entry, entry.value, RemovalCause.EXPIRED);
+                return false;
+            }
+            TimedEntry<K, V> timed = (TimedEntry<K, V>) entry;
+            long expirationTime = timed.expirationTime;
+            if (expiry != null) {
+                long currentDuration = expirationTime - now;
+                expirationTime = now + boundedDuration(expiry.expireAfterRead(entry.key, entry.value, now, currentDuration));
+            } else if (expireAfterAccessNanos != MAXIMUM_EXPIRY) {
+                expirationTime = Math.min(timed.writeTime + expireAfterWriteNanos, now + expireAfterAccessNanos);
+            }
+            if (expirationTime != timed.expirationTime) {
+                timed.expirationTime = expirationTime;
+                wheel.reschedule(timed);
+            }
+        }
+        onAccess(entry);
+        return true;
+    }
+
     private V removeEntry(Entry<K, V> entry) {
+        if (wheel != null)
+            wheel.deschedule((TimedEntry<K, V>) entry);
         int backed = backed(table.length, entry.hash);
+        TreeBin<K, V> tree;
+        if (trees != null && (tree = trees[backed]) != null) {
+            Map.Entry<Object, Entry<K, V>> lower = tree.entries.lowerEntry(entry.key);
+            if (lower == null)
+                table[backed] = entry.next;
+            else
+                lower.getValue().next = entry.next;
+            tree.entries.remove(entry.key);
+            if (tree.entries.size() <= UNTREEIFY_THRESHOLD)
+                trees[backed] = null;
+            onRemove(entry);
+            weight -= entry.weight();
+            size--;
+            modCount++;
+            return entry.value;
+        }
         Entry<K, V> cur = table[backed];
         if (cur == entry) {
             table[backed] = cur.next;
-            removeEntryFromStatistic(cur);
+            onRemove(cur);
+            weight -= cur.weight();
             size--;
             modCount++;
             return cur.value;
@@ -178,42 +1063,80 @@ public class LruHashMap<K, V> extends AbstractMap<K, V>
             prev = cur;
             cur = cur.next;
         }
-        removeEntryFromStatistic(cur);
+        onRemove(cur);
         prev.next = cur.next;
+        weight -= cur.weight();
         size--;
         modCount++;
         return cur.value;
     }
 
-    private void setHeadEntry(Entry<K, V> entry) {
-        entry.after = root;
-        if (root != null) {
-            root.before = entry;
-        }
-        if (last == null) {
-            last = entry;
-        }
-        root = entry;
+    private void onInsert(Entry<K, V> entry) {
+        if (lru != null)
+            lru.onInsert(entry);
+        else
+            policy.onInsert(entry);
     }
 
-    private void removeEntryFromStatistic(Entry<K, V> entry) {
-        Entry<K, V> before = entry.before;
-        Entry<K, V> after = entry.after;
-        if (before != null) {
-            before.after = after;
-        } else {
-            root = after;
+    private void onAccess(Entry<K, V> entry) {
+        if (lru != null) {
+            if (entry != lru.deque.first) {
+                lru.onAccess(entry);
+                modCount++; // the access order is the iteration order
+            }
+        } else if (sieve)
+            ((PolicyEntry<K, V>) entry).visited = true;
+        else
+            policy.onAccess(entry);
+    }
+
+    private void onRemove(Entry<K, V> entry) {
+        if (lru != null)
+            lru.onRemove(entry);
+        else
+            policy.onRemove(entry);
+    }
+
+    private Entry<K, V> selectVictim() {
+        if (lru != null)
+            return lru.deque.last;
+        return (Entry<K, V>) policy.selectVictim();
+    }
+
+    /**
+     * Orders the keys of a bin by hash code, then by their natural order.
+     */
+    private static final Comparator<Object> BIN_ORDER = new Comparator<Object>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public int compare(Object key1, Object key2) {
+            int h1 = key1.hashCode(), h2 = key2.hashCode();
+            if (h1 != h2)
+                return h1 < h2 ? -1 : 1;
+            return ((Comparable<Object>) key1).compareTo(key2);
         }
-        if (after != null) {
-            after.before = before;
-        } else {
-            last = before;
+    };
+
+    /**
+     * The tree index of a long bin, whose keys are all of {@code keyClass}.
+     * The chain of the bin is kept in the order of the tree, so that the
+     * predecessor of an entry is found through the tree as well.
+     */
+    static final class TreeBin<K, V> {
+        final Class<?> keyClass;
+        final TreeMap<Object, Entry<K, V>> entries;
+
+        TreeBin(Class<?> keyClass, TreeMap<Object, Entry<K, V>> entries) {
+            this.keyClass = keyClass;
+            this.entries = entries;
         }
     }
 
     /**
      * Node in the Map.  Doubles as a means to pass key-value pairs back to
-     * user (see Map.Entry).
+     * user (see Map.Entry). Maps with a weigher, a policy keeping state on
+     * the entries or expiration create the subclasses below, so plain LRU
+     * maps do not pay for their fields.
      */
     static class Entry<K, V> implements Map.Entry<K, V> {
         final int hash;
@@ -230,6 +1153,14 @@ public class LruHashMap<K, V> extends AbstractMap<K, V>
             this.next = next;
         }
 
+        /**
+         * Returns the weight of the entry, {@code 0} unless the map has a
+         * weigher.
+         */
+        int weight() {
+            return 0;
+        }
+
         @Override
         public K getKey() {
             return key;
@@ -269,10 +1200,68 @@ public class LruHashMap<K, V> extends AbstractMap<K, V>
         }
     }
 
+    /**
+     * An entry of a map with a weigher.
+     */
+    static class WeightedEntry<K, V> extends Entry<K, V> {
+        int weight;
+
+        WeightedEntry(int hash, K key, V value, Entry<K, V> next) {
+            super(hash, key, value, null, null, next);
+        }
+
+        @Override
+        int weight() {
+            return weight;
+        }
+    }
+
+    /**
+     * An entry of a map whose policy keeps state on the entries. It is
+     * weighted as well, which the object alignment leaves free.
+     */
+    static class PolicyEntry<K, V> extends WeightedEntry<K, V> {
+        byte queue;
+        boolean visited;
+        /**
+         * The state a policy keeps per entry, if it needs more than the
+         * queue and the visited mark, such as the frequency bucket of LFU.
+         */
+        Object policyState;
+
+        PolicyEntry(int hash, K key, V value, Entry<K, V> next) {
+            super(hash, key, value, next);
+        }
+    }
+
+    /**
+     * An entry of a map with expiration, linked into a bucket of the timer
+     * wheel. It carries the fields of the other entries as well, as
+     * expiration may be enabled on a map with any policy.
+     */
+    static final class TimedEntry<K, V> extends PolicyEntry<K, V> {
+        long writeTime, expirationTime;
+        TimedEntry<K, V> previousInTime, nextInTime;
+
+        TimedEntry(int hash, K key, V value, Entry<K, V> next) {
+            super(hash, key, value, next);
+        }
+    }
+
     private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+        /**
+         * Whether the access order is iterated most recently used first.
+         */
+        private final boolean descending;
+
+        EntrySet(boolean descending) {
+            this.descending = descending;
+        }
 
         @Override
         public Iterator<Map.Entry<K, V>> iterator() {
+            if (lru != null)
+                return new AccessOrderIterator(descending);
             Entry<K, V> first = null;
             for (Entry<K, V> entry : table)
                 if ((first = entry) != null)
@@ -287,11 +1276,33 @@ public class LruHashMap<K, V> extends AbstractMap<K, V>
 
         @Override
         public void clear() {
-            root = null;
-            last = null;
-            Arrays.fill(table, null);
+            List<Entry<K, V>> removed = notifier != null ? new ArrayList<Entry<K, V>>(size) : null;
+            if (lru != null) { // empty the bins of the mapped entries only, in time proportional to the size
+                for (Entry<K, V> entry = lru.deque.first; entry != null; entry = entry.after) {
+                    table[backed(table.length, entry.hash)] = null;
+                    if (removed != null)
+                        removed.add(entry);
+                }
+                lru.deque.clear();
+            } else {
+                for (Entry<K, V> bucket : table) {
+                    for (Entry<K, V> entry = bucket; entry != null; entry = entry.next) {
+                        policy.onRemove(entry);
+                        if (removed != null)
+                            removed.add(entry);
+                    }
+                }
+                Arrays.fill(table, null);
+            }
+            trees = null;
+            if (wheel != null)
+                wheel.clear();
             size = 0;
-            modCount = 0;
+            weight = 0;
+            modCount++;
+            if (removed != null)
+                for (Entry<K, V> entry : removed)
+                    notifyRemoval(entry, entry.value, RemovalCause.EXPLICIT);
         }
     }
 
@@ -306,6 +1317,28 @@ public class LruHashMap<K, V> extends AbstractMap<K, V>
         }
     }
 
+    /**
+     * Iterates the access list of the least recently used policy.
+     */
+    final class AccessOrderIterator extends PrivateEntryIterator<Map.Entry<K, V>> {
+        private final boolean descending;
+
+        AccessOrderIterator(boolean descending) {
+            super(descending ? lru.deque.first : lru.deque.last);
+            this.descending = descending;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            return nextEntry();
+        }
+
+        @Override
+        Entry<K, V> successor(Entry<K, V> entry) {
+            return descending ? entry.after : entry.before;
+        }
+    }
+
     /**
      * Base class for SplayMap Iterators
      */
@@ -332,17 +1365,23 @@ public class LruHashMap<K, V> extends AbstractMap<K, V>
             if (modCount != expectedModCount)
                 throw new ConcurrentModificationException();
 
-            if (e.next != null) {
-                next = e.next;
-            } else {
-                next = null;
-                for (int cursor = backed(table.length, e.hash) + 1; cursor < table.length; cursor++)
-                    if ((next = table[cursor]) != null)
-                        break;
-            }
+            next = successor(e);
             return lastReturned = e;
         }
 
+        /**
+         * Returns the entry after the given one in table order.
+         */
+        Entry<K, V> successor(Entry<K, V> entry) {
+            if (entry.next != null)
+                return entry.next;
+            Entry<K, V> next = null;
+            for (int cursor = backed(table.length, entry.hash) + 1; cursor < table.length; cursor++)
+                if ((next = table[cursor]) != null)
+                    break;
+            return next;
+        }
+
         @Override
         public void remove() {
             if (lastReturned == null)
@@ -351,6 +1390,7 @@ public class LruHashMap<K, V> extends AbstractMap<K, V>
                 throw new ConcurrentModificationException();
 
             LruHashMap.this.removeEntry(lastReturned);
+            notifyRemoval(lastReturned, lastReturned.value, RemovalCause.EXPLICIT);
 
             expectedModCount = modCount;
             lastReturned = null;
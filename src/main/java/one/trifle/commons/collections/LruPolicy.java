@@ -0,0 +1,31 @@
+package one.trifle.commons.collections;
+
+import java.util.Map;
+
+/**
+ * Evicts the least recently used entry. The access order is kept in the
+ * intrusive before/after list of the entries, most recently used first.
+ */
+final class LruPolicy<K, V> implements EvictionPolicy<K, V> {
+    final EntryDeque<K, V> deque = new EntryDeque<K, V>();
+
+    @Override
+    public void onInsert(Map.Entry<K, V> entry) {
+        deque.linkFirst((LruHashMap.Entry<K, V>) entry);
+    }
+
+    @Override
+    public void onAccess(Map.Entry<K, V> entry) {
+        deque.moveToFront((LruHashMap.Entry<K, V>) entry);
+    }
+
+    @Override
+    public void onRemove(Map.Entry<K, V> entry) {
+        deque.unlink((LruHashMap.Entry<K, V>) entry);
+    }
+
+    @Override
+    public Map.Entry<K, V> selectVictim() {
+        return deque.last;
+    }
+}
@@ -0,0 +1,635 @@
+package one.trifle.commons.collections;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+
+import static one.trifle.commons.collections.LruHashMap.spread;
+
+/**
+ * A bounded map which keeps its keys and values serialized in direct memory,
+ * so the Java heap only holds the slabs and a few arrays regardless of the
+ * number of entries.
+ * <p>
+ * Memory is split into slabs of equal size which are allocated on demand up
+ * to the maximum memory. Like memcached, every slab belongs to a slab class
+ * and is carved into chunks of that class' size; the chunk sizes grow by a
+ * factor of 1.25, and an entry is stored in the smallest chunk fitting its
+ * header, key and value. Each class has its own access list, so when a class
+ * runs out of chunks and no new slab may be allocated, the least recently
+ * used entry of that class is evicted. A class without any slab takes one
+ * over from the class owning the most slabs, evicting that slab's entries.
+ * <p>
+ * The hash index is an off-heap table of chunk addresses which doubles once
+ * it is three quarters full, and the hash chains and access lists are
+ * threaded through the chunk headers. Keys are
+ * compared by their serialized bytes and hashed by {@link Object#hashCode()}.
+ * Entries returned by the entry set are deserialized copies which do not
+ * support {@link Map.Entry#setValue}.
+ * <p>
+ * The direct memory is returned when the map is {@linkplain #close() closed},
+ * or else once the garbage collector collects the buffers. This class is not
+ * thread safe.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public class OffHeapLruHashMap<K, V> extends AbstractMap<K, V> implements Closeable {
+    /**
+     * The default slab size, 1 MiB.
+     */
+    public static final int DEFAULT_SLAB_SIZE = 1 << 20;
+    /**
+     * The size of the smallest chunk.
+     */
+    static final int MIN_CHUNK_SIZE = 64;
+    private static final double GROWTH_FACTOR = 1.25;
+    private static final int MINIMUM_INDEX_CAPACITY = 16;
+    private static final int MAXIMUM_INDEX_CAPACITY = 1 << 27;
+    private static final long NULL = -1;
+
+    // chunk header layout
+    private static final int NEXT = 0;
+    private static final int BEFORE = 8;
+    private static final int AFTER = 16;
+    private static final int HASH = 24;
+    private static final int KEY_LENGTH = 28;
+    private static final int VALUE_LENGTH = 32;
+    private static final int IN_USE = 36;
+    static final int HEADER_SIZE = 40;
+
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    private final int slabShift;
+    private final int slabMask;
+    private final ByteBuffer[] slabs;
+    private final byte[] slabClasses;
+    private int slabCount;
+    private final int[] chunkSizes;
+    private final int[] slabsPerClass;
+    private final long[] freeHeads;
+    private final long[] lruHeads;
+    private final long[] lruTails;
+    /**
+     * The hash index, or {@code null} once the map is closed.
+     */
+    private ByteBuffer index;
+    private int indexMask;
+    /**
+     * The size above which the hash index is doubled.
+     */
+    private int indexThreshold;
+    private int size;
+    private transient int modCount;
+    private ByteBuffer scratch = ByteBuffer.allocate(256);
+    private transient EntrySet entrySet;
+
+    /**
+     * Constructs a map with slabs of {@link #DEFAULT_SLAB_SIZE}.
+     *
+     * @param maxMemory       the maximum number of bytes of all slabs
+     * @param expectedEntries the expected number of entries, used to size the
+     *                        hash index initially
+     * @param keySerializer   serializes the keys
+     * @param valueSerializer serializes the values
+     * @throws IllegalArgumentException if {@code maxMemory} is smaller than
+     *                                  the slab size or {@code expectedEntries}
+     *                                  is negative
+     */
+    public OffHeapLruHashMap(long maxMemory, int expectedEntries,
+                             Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        this(maxMemory, expectedEntries, keySerializer, valueSerializer, DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * @param maxMemory       the maximum number of bytes of all slabs
+     * @param expectedEntries the expected number of entries, used to size the
+     *                        hash index initially
+     * @param keySerializer   serializes the keys
+     * @param valueSerializer serializes the values
+     * @param slabSize        the size of a slab, a power of two which also
+     *                        limits the size of an entry
+     * @throws IllegalArgumentException if the slab size is not a power of two
+     *                                  of at least {@link #MIN_CHUNK_SIZE}, if
+     *                                  {@code maxMemory} is smaller than it or
+     *                                  {@code expectedEntries} is negative
+     * @throws NullPointerException     if a serializer is null
+     */
+    public OffHeapLruHashMap(long maxMemory, int expectedEntries,
+                             Serializer<K> keySerializer, Serializer<V> valueSerializer, int slabSize) {
+        if (slabSize < MIN_CHUNK_SIZE || Integer.bitCount(slabSize) != 1
+                || maxMemory < slabSize || expectedEntries < 0)
+            throw new IllegalArgumentException();
+        if (keySerializer == null || valueSerializer == null) throw new NullPointerException();
+        long maxSlabs = maxMemory / slabSize;
+        if (maxSlabs > Integer.MAX_VALUE) throw new IllegalArgumentException("too many slabs " + maxSlabs);
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.slabShift = Integer.numberOfTrailingZeros(slabSize);
+        this.slabMask = slabSize - 1;
+        this.slabs = new ByteBuffer[(int) maxSlabs];
+        this.slabClasses = new byte[slabs.length];
+        this.chunkSizes = chunkSizes(slabSize);
+        this.slabsPerClass = new int[chunkSizes.length];
+        this.freeHeads = new long[chunkSizes.length];
+        this.lruHeads = new long[chunkSizes.length];
+        this.lruTails = new long[chunkSizes.length];
+        Arrays.fill(freeHeads, NULL);
+        Arrays.fill(lruHeads, NULL);
+        Arrays.fill(lruTails, NULL);
+        int capacity = MINIMUM_INDEX_CAPACITY;
+        while (capacity < expectedEntries / 0.75 && capacity < MAXIMUM_INDEX_CAPACITY)
+            capacity <<= 1;
+        setIndex(newIndex(capacity));
+    }
+
+    private static ByteBuffer newIndex(int capacity) {
+        ByteBuffer index = ByteBuffer.allocateDirect(capacity << 3).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < capacity; i++)
+            index.putLong(i << 3, NULL);
+        return index;
+    }
+
+    private void setIndex(ByteBuffer index) {
+        int capacity = index.capacity() >>> 3;
+        this.index = index;
+        this.indexMask = capacity - 1;
+        this.indexThreshold = capacity < MAXIMUM_INDEX_CAPACITY ? capacity - (capacity >>> 2) : Integer.MAX_VALUE;
+    }
+
+    private static int[] chunkSizes(int slabSize) {
+        List<Integer> sizes = new ArrayList<Integer>();
+        double size = MIN_CHUNK_SIZE;
+        while (size < slabSize / GROWTH_FACTOR && sizes.size() < Byte.MAX_VALUE) {
+            int chunkSize = ((int) size + 7) & ~7;
+            if (sizes.isEmpty() || sizes.get(sizes.size() - 1) != chunkSize)
+                sizes.add(chunkSize);
+            size *= GROWTH_FACTOR;
+        }
+        sizes.add(slabSize);
+        int[] result = new int[sizes.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = sizes.get(i);
+        return result;
+    }
+
+    /**
+     * Returns the number of bytes of the slabs allocated so far.
+     *
+     * @return the allocated off-heap memory, excluding the hash index
+     */
+    public long allocatedMemory() {
+        return (long) slabCount << slabShift;
+    }
+
+    /**
+     * Returns the number of buckets of the hash index.
+     */
+    int indexCapacity() {
+        return indexMask + 1;
+    }
+
+    /**
+     * Frees the slabs and the hash index right away, instead of waiting for
+     * the garbage collector to collect their buffers, which may take long as
+     * the heap of such a map stays almost empty. The map is empty afterwards
+     * and all other methods but {@link #size()} throw
+     * {@link IllegalStateException}. Closing a closed map has no effect.
+     */
+    @Override
+    public void close() {
+        if (index == null)
+            return;
+        for (int slab = 0; slab < slabCount; slab++) {
+            DirectMemory.free(slabs[slab]);
+            slabs[slab] = null;
+        }
+        slabCount = 0;
+        DirectMemory.free(index);
+        index = null;
+        size = 0;
+        modCount++;
+    }
+
+    private void ensureOpen() {
+        if (index == null) throw new IllegalStateException("map is closed");
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        ensureOpen();
+        ByteBuffer keyBytes = serializeKey(key);
+        return findEntry(spread(key.hashCode()), keyBytes) != NULL;
+    }
+
+    @Override
+    public V get(Object key) {
+        ensureOpen();
+        ByteBuffer keyBytes = serializeKey(key);
+        long entry = findEntry(spread(key.hashCode()), keyBytes);
+        if (entry == NULL)
+            return null;
+        moveToFront(entry);
+        return readValue(entry);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if the serialized entry does not fit
+     *                                  into a slab
+     */
+    @Override
+    public V put(K key, V value) {
+        if (key == null || value == null) throw new NullPointerException();
+        ensureOpen();
+        int hash = spread(key.hashCode());
+        ByteBuffer keyBytes = serializeKey(key);
+        int keyLength = keyBytes.remaining();
+        int valueLength = valueSerializer.serializedSize(value);
+        long total = (long) HEADER_SIZE + keyLength + valueLength;
+        int slabClass = slabClassFor(total);
+        if (slabClass < 0)
+            throw new IllegalArgumentException("entry of " + total + " bytes does not fit into a slab");
+
+        V oldValue = null;
+        long entry = findEntry(hash, keyBytes);
+        if (entry != NULL) {
+            oldValue = readValue(entry);
+            if (slabClassOf(entry) == slabClass) {
+                writeValue(entry, keyLength, value, valueLength);
+                moveToFront(entry);
+                return oldValue;
+            }
+            removeEntry(entry);
+        }
+
+        entry = allocate(slabClass);
+        ByteBuffer slab = slabOf(entry);
+        int offset = offsetOf(entry);
+        slab.putInt(offset + HASH, hash);
+        slab.putInt(offset + KEY_LENGTH, keyLength);
+        slab.put(offset + IN_USE, (byte) 1);
+        for (int i = 0; i < keyLength; i++)
+            slab.put(offset + HEADER_SIZE + i, keyBytes.get(i));
+        writeValue(entry, keyLength, value, valueLength);
+        int bucket = hash & indexMask;
+        slab.putLong(offset + NEXT, index.getLong(bucket << 3));
+        index.putLong(bucket << 3, entry);
+        linkFirst(entry, slabClass);
+        if (++size > indexThreshold)
+            growIndex();
+        modCount++;
+        return oldValue;
+    }
+
+    /**
+     * Doubles the hash index, relinking the chains into the new one, and
+     * frees the old one.
+     */
+    private void growIndex() {
+        ByteBuffer oldIndex = index;
+        int oldCapacity = indexMask + 1;
+        ByteBuffer newIndex = newIndex(oldCapacity << 1);
+        int newMask = (oldCapacity << 1) - 1;
+        for (int i = 0; i < oldCapacity; i++) {
+            long entry = oldIndex.getLong(i << 3);
+            while (entry != NULL) {
+                ByteBuffer slab = slabOf(entry);
+                int offset = offsetOf(entry);
+                long next = slab.getLong(offset + NEXT);
+                int bucket = (slab.getInt(offset + HASH) & newMask) << 3;
+                slab.putLong(offset + NEXT, newIndex.getLong(bucket));
+                newIndex.putLong(bucket, entry);
+                entry = next;
+            }
+        }
+        setIndex(newIndex);
+        DirectMemory.free(oldIndex);
+    }
+
+    @Override
+    public V remove(Object key) {
+        ensureOpen();
+        ByteBuffer keyBytes = serializeKey(key);
+        long entry = findEntry(spread(key.hashCode()), keyBytes);
+        if (entry == NULL)
+            return null;
+        V value = readValue(entry);
+        removeEntry(entry);
+        return value;
+    }
+
+    @Override
+    public void clear() {
+        ensureOpen();
+        for (int i = 0; i <= indexMask; i++)
+            index.putLong(i << 3, NULL);
+        Arrays.fill(freeHeads, NULL);
+        Arrays.fill(lruHeads, NULL);
+        Arrays.fill(lruTails, NULL);
+        for (int slab = 0; slab < slabCount; slab++)
+            carve(slab);
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        EntrySet es;
+        return (es = entrySet) != null ? es : (entrySet = new EntrySet());
+    }
+
+    @SuppressWarnings("unchecked")
+    private ByteBuffer serializeKey(Object key) {
+        K k = (K) key;
+        int length = keySerializer.serializedSize(k);
+        if (scratch.capacity() < length)
+            scratch = ByteBuffer.allocate(Math.max(length, scratch.capacity() << 1));
+        scratch.clear();
+        keySerializer.serialize(k, scratch);
+        if (scratch.position() != length)
+            throw new IllegalStateException("serializer wrote " + scratch.position() + " of " + length + " bytes");
+        scratch.flip();
+        return scratch;
+    }
+
+    private long findEntry(int hash, ByteBuffer keyBytes) {
+        long entry = index.getLong((hash & indexMask) << 3);
+        while (entry != NULL) {
+            ByteBuffer slab = slabOf(entry);
+            int offset = offsetOf(entry);
+            if (slab.getInt(offset + HASH) == hash && keyEquals(slab, offset, keyBytes))
+                return entry;
+            entry = slab.getLong(offset + NEXT);
+        }
+        return NULL;
+    }
+
+    private static boolean keyEquals(ByteBuffer slab, int offset, ByteBuffer keyBytes) {
+        int length = keyBytes.remaining();
+        if (slab.getInt(offset + KEY_LENGTH) != length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (slab.get(offset + HEADER_SIZE + i) != keyBytes.get(i))
+                return false;
+        return true;
+    }
+
+    private K readKey(long entry) {
+        ByteBuffer slab = slabOf(entry);
+        int offset = offsetOf(entry);
+        int start = offset + HEADER_SIZE;
+        return keySerializer.deserialize(view(slab, start, start + slab.getInt(offset + KEY_LENGTH)));
+    }
+
+    private V readValue(long entry) {
+        ByteBuffer slab = slabOf(entry);
+        int offset = offsetOf(entry);
+        int start = offset + HEADER_SIZE + slab.getInt(offset + KEY_LENGTH);
+        return valueSerializer.deserialize(view(slab, start, start + slab.getInt(offset + VALUE_LENGTH)));
+    }
+
+    private void writeValue(long entry, int keyLength, V value, int valueLength) {
+        ByteBuffer slab = slabOf(entry);
+        int offset = offsetOf(entry);
+        int start = offset + HEADER_SIZE + keyLength;
+        ByteBuffer out = view(slab, start, start + valueLength);
+        valueSerializer.serialize(value, out);
+        if (out.position() != start + valueLength)
+            throw new IllegalStateException("serializer wrote " + (out.position() - start) + " of " + valueLength + " bytes");
+        slab.putInt(offset + VALUE_LENGTH, valueLength);
+    }
+
+    private static ByteBuffer view(ByteBuffer slab, int start, int end) {
+        ByteBuffer view = slab.duplicate();
+        view.limit(end);
+        view.position(start);
+        return view;
+    }
+
+    private int slabClassFor(long total) {
+        for (int i = 0; i < chunkSizes.length; i++)
+            if (chunkSizes[i] >= total)
+                return i;
+        return -1;
+    }
+
+    private int slabClassOf(long entry) {
+        return slabClasses[(int) (entry >>> slabShift)];
+    }
+
+    private ByteBuffer slabOf(long entry) {
+        return slabs[(int) (entry >>> slabShift)];
+    }
+
+    private int offsetOf(long entry) {
+        return (int) entry & slabMask;
+    }
+
+    /**
+     * Takes a free chunk of the class, allocating a slab, evicting the least
+     * recently used entry of the class or taking over a slab of another
+     * class if there is none.
+     */
+    private long allocate(int slabClass) {
+        if (freeHeads[slabClass] == NULL) {
+            if (slabCount < slabs.length) {
+                int slab = slabCount++;
+                slabs[slab] = ByteBuffer.allocateDirect(slabMask + 1).order(ByteOrder.nativeOrder());
+                assign(slab, slabClass);
+            } else if (lruTails[slabClass] != NULL) {
+                removeEntry(lruTails[slabClass]);
+            } else {
+                reassign(slabClass);
+            }
+        }
+        long chunk = freeHeads[slabClass];
+        freeHeads[slabClass] = slabOf(chunk).getLong(offsetOf(chunk) + NEXT);
+        return chunk;
+    }
+
+    private void assign(int slab, int slabClass) {
+        slabClasses[slab] = (byte) slabClass;
+        slabsPerClass[slabClass]++;
+        carve(slab);
+    }
+
+    /**
+     * Pushes all chunks of the slab onto the free list of its class.
+     */
+    private void carve(int slab) {
+        int slabClass = slabClasses[slab];
+        int chunkSize = chunkSizes[slabClass];
+        for (int offset = 0; offset + chunkSize <= slabMask + 1; offset += chunkSize)
+            free(((long) slab << slabShift) | offset, slabClass);
+    }
+
+    /**
+     * Moves the slab holding the least recently used entry of the class with
+     * the most slabs over to the given class, evicting its entries.
+     */
+    private void reassign(int slabClass) {
+        int donor = 0;
+        for (int i = 1; i < slabsPerClass.length; i++)
+            if (slabsPerClass[i] > slabsPerClass[donor])
+                donor = i;
+        long chunk = lruTails[donor] != NULL ? lruTails[donor] : freeHeads[donor];
+        int slab = (int) (chunk >>> slabShift);
+        ByteBuffer buffer = slabs[slab];
+        int chunkSize = chunkSizes[donor];
+        for (int offset = 0; offset + chunkSize <= slabMask + 1; offset += chunkSize)
+            if (buffer.get(offset + IN_USE) != 0)
+                removeEntry(((long) slab << slabShift) | offset);
+        long kept = NULL;
+        for (long free = freeHeads[donor]; free != NULL; ) {
+            long next = slabOf(free).getLong(offsetOf(free) + NEXT);
+            if ((int) (free >>> slabShift) != slab) {
+                slabOf(free).putLong(offsetOf(free) + NEXT, kept);
+                kept = free;
+            }
+            free = next;
+        }
+        freeHeads[donor] = kept;
+        slabsPerClass[donor]--;
+        assign(slab, slabClass);
+    }
+
+    private void free(long chunk, int slabClass) {
+        ByteBuffer slab = slabOf(chunk);
+        int offset = offsetOf(chunk);
+        slab.put(offset + IN_USE, (byte) 0);
+        slab.putLong(offset + NEXT, freeHeads[slabClass]);
+        freeHeads[slabClass] = chunk;
+    }
+
+    private void removeEntry(long entry) {
+        ByteBuffer slab = slabOf(entry);
+        int offset = offsetOf(entry);
+        int bucket = (slab.getInt(offset + HASH) & indexMask) << 3;
+        long next = slab.getLong(offset + NEXT);
+        long cur = index.getLong(bucket);
+        if (cur == entry) {
+            index.putLong(bucket, next);
+        } else {
+            long prev;
+            do {
+                prev = cur;
+                cur = slabOf(cur).getLong(offsetOf(cur) + NEXT);
+            } while (cur != entry);
+            slabOf(prev).putLong(offsetOf(prev) + NEXT, next);
+        }
+        int slabClass = slabClassOf(entry);
+        unlink(entry, slabClass);
+        free(entry, slabClass);
+        size--;
+        modCount++;
+    }
+
+    private void linkFirst(long entry, int slabClass) {
+        ByteBuffer slab = slabOf(entry);
+        int offset = offsetOf(entry);
+        long head = lruHeads[slabClass];
+        slab.putLong(offset + BEFORE, NULL);
+        slab.putLong(offset + AFTER, head);
+        if (head != NULL)
+            slabOf(head).putLong(offsetOf(head) + BEFORE, entry);
+        else
+            lruTails[slabClass] = entry;
+        lruHeads[slabClass] = entry;
+    }
+
+    private void unlink(long entry, int slabClass) {
+        ByteBuffer slab = slabOf(entry);
+        int offset = offsetOf(entry);
+        long before = slab.getLong(offset + BEFORE);
+        long after = slab.getLong(offset + AFTER);
+        if (before != NULL)
+            slabOf(before).putLong(offsetOf(before) + AFTER, after);
+        else
+            lruHeads[slabClass] = after;
+        if (after != NULL)
+            slabOf(after).putLong(offsetOf(after) + BEFORE, before);
+        else
+            lruTails[slabClass] = before;
+    }
+
+    private void moveToFront(long entry) {
+        int slabClass = slabClassOf(entry);
+        if (lruHeads[slabClass] != entry) {
+            unlink(entry, slabClass);
+            linkFirst(entry, slabClass);
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            ensureOpen();
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return OffHeapLruHashMap.this.size();
+        }
+
+        @Override
+        public void clear() {
+            OffHeapLruHashMap.this.clear();
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        private int bucket = -1;
+        private long next = NULL;
+        private K lastKey;
+        private int expectedModCount = modCount;
+
+        EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            if (next != NULL)
+                next = slabOf(next).getLong(offsetOf(next) + NEXT);
+            while (next == NULL && bucket < indexMask)
+                next = index.getLong(++bucket << 3);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != NULL;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (next == NULL)
+                throw new NoSuchElementException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            long entry = next;
+            Map.Entry<K, V> result = new SimpleImmutableEntry<K, V>(readKey(entry), readValue(entry));
+            advance();
+            lastKey = result.getKey();
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            if (lastKey == null)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            OffHeapLruHashMap.this.remove(lastKey);
+            expectedModCount = modCount;
+            lastKey = null;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package one.trifle.commons.collections;
+
+/**
+ * The reason why an entry left a map.
+ *
+ * @see RemovalListener
+ */
+public enum RemovalCause {
+    /**
+     * The entry was removed by the user, with {@code remove}, {@code clear}
+     * or through an iterator.
+     */
+    EXPLICIT,
+    /**
+     * The value of the entry was replaced by a put; the entry stays mapped
+     * with the new value.
+     */
+    REPLACED,
+    /**
+     * The entry was evicted because the map exceeded its maximum size or
+     * weight.
+     */
+    SIZE,
+    /**
+     * The entry expired.
+     */
+    EXPIRED,
+    /**
+     * The key or the value was garbage collected. Only maps holding weak or
+     * soft references report this cause.
+     */
+    COLLECTED;
+
+    /**
+     * Returns whether the entry was removed automatically rather than by the
+     * user.
+     *
+     * @return {@code true} for {@link #SIZE}, {@link #EXPIRED} and
+     * {@link #COLLECTED}
+     */
+    public boolean wasEvicted() {
+        return this != EXPLICIT && this != REPLACED;
+    }
+}
@@ -0,0 +1,22 @@
+package one.trifle.commons.collections;
+
+/**
+ * Receives the entries which left a map, for example to release resources
+ * held by the values or to record metrics.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ * @see LruHashMap#setRemovalListener(RemovalListener)
+ */
+public interface RemovalListener<K, V> {
+    /**
+     * Called after the entry has been removed or its value replaced. An
+     * exception thrown by the listener is passed to the uncaught exception
+     * handler of the current thread and does not affect the map.
+     *
+     * @param key   the key of the entry
+     * @param value the removed or replaced value
+     * @param cause why the entry was removed
+     */
+    void onRemoval(K key, V value, RemovalCause cause);
+}
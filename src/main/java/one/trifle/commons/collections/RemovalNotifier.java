@@ -0,0 +1,102 @@
+package one.trifle.commons.collections;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Delivers removal notifications to a listener, either on the calling thread
+ * or through a bounded buffer drained in batches by an executor. A full
+ * buffer, or an executor rejecting the drain, makes the calling thread
+ * deliver its notification itself, so notifications are never dropped.
+ */
+final class RemovalNotifier<K, V> {
+    /**
+     * The capacity of the buffer of pending notifications.
+     */
+    static final int BUFFER_SIZE = 1024;
+    /**
+     * The number of notifications delivered per batch.
+     */
+    static final int BATCH_SIZE = 64;
+
+    private final RemovalListener<? super K, ? super V> listener;
+    private final Executor executor;
+    private final BlockingQueue<Notification<K, V>> buffer;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * @param listener receives the notifications
+     * @param executor delivers the notifications, or {@code null} to deliver
+     *                 them on the calling thread
+     */
+    RemovalNotifier(RemovalListener<? super K, ? super V> listener, Executor executor) {
+        this.listener = listener;
+        this.executor = executor;
+        this.buffer = executor == null ? null : new ArrayBlockingQueue<Notification<K, V>>(BUFFER_SIZE);
+    }
+
+    void notify(K key, V value, RemovalCause cause) {
+        if (executor == null || !buffer.offer(new Notification<K, V>(key, value, cause))) {
+            deliver(key, value, cause);
+            return;
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        if (!scheduled.compareAndSet(false, true))
+            return;
+        try {
+            executor.execute(drainTask);
+        } catch (RejectedExecutionException e) {
+            drain();
+        }
+    }
+
+    private void drain() {
+        List<Notification<K, V>> batch = new ArrayList<Notification<K, V>>(BATCH_SIZE);
+        try {
+            while (buffer.drainTo(batch, BATCH_SIZE) > 0) {
+                for (Notification<K, V> notification : batch)
+                    deliver(notification.key, notification.value, notification.cause);
+                batch.clear();
+            }
+        } finally {
+            scheduled.set(false);
+        }
+        if (!buffer.isEmpty()) // offered after the last poll, before the flag was cleared
+            schedule();
+    }
+
+    private void deliver(K key, V value, RemovalCause cause) {
+        try {
+            listener.onRemoval(key, value, cause);
+        } catch (RuntimeException e) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+
+    private static final class Notification<K, V> {
+        final K key;
+        final V value;
+        final RemovalCause cause;
+
+        Notification(K key, V value, RemovalCause cause) {
+            this.key = key;
+            this.value = value;
+            this.cause = cause;
+        }
+    }
+}
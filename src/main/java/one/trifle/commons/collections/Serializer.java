@@ -0,0 +1,95 @@
+package one.trifle.commons.collections;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts keys or values of an {@link OffHeapLruHashMap} to bytes and back.
+ * Equal objects must serialize to equal bytes, as keys are compared in their
+ * serialized form.
+ *
+ * @param <T> the type of the serialized objects
+ */
+public interface Serializer<T> {
+    /**
+     * Returns a serializer of byte arrays which copies them as they are.
+     *
+     * @return the byte array serializer
+     */
+    static Serializer<byte[]> bytes() {
+        return new Serializer<byte[]>() {
+            @Override
+            public int serializedSize(byte[] value) {
+                return value.length;
+            }
+
+            @Override
+            public void serialize(byte[] value, ByteBuffer out) {
+                out.put(value);
+            }
+
+            @Override
+            public byte[] deserialize(ByteBuffer in) {
+                byte[] value = new byte[in.remaining()];
+                in.get(value);
+                return value;
+            }
+        };
+    }
+
+    /**
+     * Returns a serializer of strings encoding them as UTF-8.
+     *
+     * @return the string serializer
+     */
+    static Serializer<String> string() {
+        final Charset utf8 = StandardCharsets.UTF_8;
+        return new Serializer<String>() {
+            @Override
+            public int serializedSize(String value) {
+                return value.getBytes(utf8).length;
+            }
+
+            @Override
+            public void serialize(String value, ByteBuffer out) {
+                out.put(value.getBytes(utf8));
+            }
+
+            @Override
+            public String deserialize(ByteBuffer in) {
+                byte[] bytes = new byte[in.remaining()];
+                in.get(bytes);
+                return new String(bytes, utf8);
+            }
+        };
+    }
+
+    /**
+     * Returns the number of bytes {@link #serialize} writes for the object.
+     *
+     * @param value the object
+     * @return the serialized size in bytes
+     */
+    int serializedSize(T value);
+
+    /**
+     * Writes exactly {@link #serializedSize} bytes of the object at the
+     * position of the buffer.
+     *
+     * @param value the object
+     * @param out   the buffer to write to
+     */
+    void serialize(T value, ByteBuffer out);
+
+    /**
+     * Reads an object from the remaining bytes of the buffer. The buffer is a
+     * view of memory the map reuses once the entry is evicted and frees when
+     * it is closed, so the object must copy the bytes it needs; neither the
+     * buffer nor a view of it may be kept past the call.
+     *
+     * @param in the serialized object, valid only during the call
+     * @return the object
+     */
+    T deserialize(ByteBuffer in);
+}
@@ -0,0 +1,65 @@
+package one.trifle.commons.collections;
+
+import java.util.Map;
+
+/**
+ * SIEVE: entries are kept in insertion order and a hit only marks the entry
+ * as visited, so reads never relink the list. On eviction a hand walks from
+ * the oldest entry towards the newest, clearing the visited marks it passes,
+ * and evicts the first entry which was not visited since the hand last saw
+ * it. The hand keeps its position between evictions and wraps around.
+ * <p>
+ * SIEVE evicts before it inserts, so the hand passes over the entry whose
+ * insertion caused the overflow.
+ */
+final class SievePolicy<K, V> implements EvictionPolicy<K, V> {
+    final EntryDeque<K, V> deque = new EntryDeque<K, V>();
+    LruHashMap.Entry<K, V> hand;
+    private LruHashMap.Entry<K, V> inserted;
+
+    @Override
+    public void onInsert(Map.Entry<K, V> entry) {
+        LruHashMap.PolicyEntry<K, V> e = (LruHashMap.PolicyEntry<K, V>) entry;
+        e.visited = false;
+        deque.linkFirst(e);
+        inserted = e;
+    }
+
+    @Override
+    public void onAccess(Map.Entry<K, V> entry) {
+        ((LruHashMap.PolicyEntry<K, V>) entry).visited = true;
+    }
+
+    @Override
+    public void onRemove(Map.Entry<K, V> entry) {
+        LruHashMap.PolicyEntry<K, V> e = (LruHashMap.PolicyEntry<K, V>) entry;
+        if (e == hand)
+            hand = e.before;
+        if (e == inserted)
+            inserted = null;
+        deque.unlink(e);
+    }
+
+    @Override
+    public void onEvictionEnd() {
+        inserted = null;
+    }
+
+    @Override
+    public Map.Entry<K, V> selectVictim() {
+        if (deque.size == 1)
+            return hand = deque.last;
+        LruHashMap.Entry<K, V> e = hand != null && !isInserted(hand) ? hand : deque.last;
+        LruHashMap.PolicyEntry<K, V> p;
+        while ((p = (LruHashMap.PolicyEntry<K, V>) e).visited) {
+            p.visited = false;
+            e = e.before != null && !isInserted(e.before) ? e.before : deque.last;
+        }
+        hand = e;
+        return e;
+    }
+
+    private boolean isInserted(LruHashMap.Entry<K, V> entry) {
+        return entry == inserted && entry == deque.first;
+    }
+}
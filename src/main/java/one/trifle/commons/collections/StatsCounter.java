@@ -0,0 +1,55 @@
+package one.trifle.commons.collections;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates cache statistics in striped counters, so threads recording
+ * concurrently do not contend on a shared field.
+ */
+final class StatsCounter {
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder evictionWeight = new LongAdder();
+    private final LongAdder loadSuccessCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+
+    void recordHits(int count) {
+        hitCount.add(count);
+    }
+
+    void recordMisses(int count) {
+        missCount.add(count);
+    }
+
+    void recordEviction(long weight) {
+        evictionCount.increment();
+        evictionWeight.add(weight);
+    }
+
+    void recordLoadSuccess(long loadTime) {
+        loadSuccessCount.increment();
+        totalLoadTime.add(loadTime);
+    }
+
+    void recordLoadFailure(long loadTime) {
+        loadFailureCount.increment();
+        totalLoadTime.add(loadTime);
+    }
+
+    CacheStats snapshot() {
+        return new CacheStats(
+                negativeToMaxValue(hitCount.sum()),
+                negativeToMaxValue(missCount.sum()),
+                negativeToMaxValue(evictionCount.sum()),
+                negativeToMaxValue(evictionWeight.sum()),
+                negativeToMaxValue(loadSuccessCount.sum()),
+                negativeToMaxValue(loadFailureCount.sum()),
+                negativeToMaxValue(totalLoadTime.sum()));
+    }
+
+    private static long negativeToMaxValue(long value) {
+        return value < 0 ? Long.MAX_VALUE : value;
+    }
+}
@@ -0,0 +1,25 @@
+package one.trifle.commons.collections;
+
+/**
+ * A time source returning the number of nanoseconds elapsed since some fixed
+ * but arbitrary point in time.
+ */
+interface Ticker {
+    /**
+     * The ticker backed by {@link System#nanoTime()}.
+     */
+    Ticker SYSTEM = new Ticker() {
+        @Override
+        public long read() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * Returns the number of nanoseconds elapsed since this ticker's fixed
+     * point of reference.
+     *
+     * @return the current time in nanoseconds
+     */
+    long read();
+}
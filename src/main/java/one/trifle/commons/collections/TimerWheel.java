@@ -0,0 +1,170 @@
+package one.trifle.commons.collections;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hierarchical timer wheel of {@link LruHashMap} entries ordered by their
+ * expiration time.
+ * <p>
+ * Every level of the wheel is an array of buckets, each bucket a circular
+ * doubly linked list of the entries expiring within the span of the bucket.
+ * The spans grow from about a second to about a week, so scheduling,
+ * rescheduling and descheduling an entry are O(1). Advancing the wheel only
+ * visits the buckets the clock has passed: expired entries are evicted and
+ * the others cascade down to a finer level. This keeps reclaiming expired
+ * entries amortized O(1) without scanning the table.
+ */
+final class TimerWheel<K, V> {
+    static final int[] BUCKETS = {64, 64, 32, 4, 1};
+    static final long[] SPANS = {
+            ceilingPowerOfTwo(TimeUnit.SECONDS.toNanos(1)), // 1.07s
+            ceilingPowerOfTwo(TimeUnit.MINUTES.toNanos(1)), // 1.14m
+            ceilingPowerOfTwo(TimeUnit.HOURS.toNanos(1)),   // 1.22h
+            ceilingPowerOfTwo(TimeUnit.DAYS.toNanos(1)),    // 1.63d
+            BUCKETS[3] * ceilingPowerOfTwo(TimeUnit.DAYS.toNanos(1)), // 6.5d
+            BUCKETS[3] * ceilingPowerOfTwo(TimeUnit.DAYS.toNanos(1)), // 6.5d
+    };
+    static final long[] SHIFT = {
+            Long.numberOfTrailingZeros(SPANS[0]),
+            Long.numberOfTrailingZeros(SPANS[1]),
+            Long.numberOfTrailingZeros(SPANS[2]),
+            Long.numberOfTrailingZeros(SPANS[3]),
+            Long.numberOfTrailingZeros(SPANS[4]),
+    };
+
+    private final LruHashMap<K, V> map;
+    private final LruHashMap.TimedEntry<K, V>[][] wheel;
+    /**
+     * The time of the last advance.
+     */
+    long nanos;
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(LruHashMap<K, V> map, long nanos) {
+        this.map = map;
+        this.nanos = nanos;
+        this.wheel = new LruHashMap.TimedEntry[BUCKETS.length][];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new LruHashMap.TimedEntry[BUCKETS[i]];
+            for (int j = 0; j < wheel[i].length; j++)
+                wheel[i][j] = sentinel();
+        }
+    }
+
+    private static long ceilingPowerOfTwo(long x) {
+        return 1L << -Long.numberOfLeadingZeros(x - 1);
+    }
+
+    private static <K, V> LruHashMap.TimedEntry<K, V> sentinel() {
+        LruHashMap.TimedEntry<K, V> sentinel = new LruHashMap.TimedEntry<K, V>(0, null, null, null);
+        sentinel.previousInTime = sentinel;
+        sentinel.nextInTime = sentinel;
+        return sentinel;
+    }
+
+    /**
+     * Evicts the entries which expired since the last advance and cascades
+     * the others to the buckets matching their remaining time.
+     *
+     * @param currentTimeNanos the current time
+     */
+    void advance(long currentTimeNanos) {
+        long previousTimeNanos = nanos;
+        nanos = currentTimeNanos;
+        for (int i = 0; i < SHIFT.length; i++) {
+            long previousTicks = previousTimeNanos >>> SHIFT[i];
+            long currentTicks = currentTimeNanos >>> SHIFT[i];
+            if ((currentTicks - previousTicks) <= 0L)
+                break;
+            expire(i, previousTicks, currentTicks);
+        }
+    }
+
+    private void expire(int index, long previousTicks, long currentTicks) {
+        LruHashMap.TimedEntry<K, V>[] timerWheel = wheel[index];
+        int mask = timerWheel.length - 1;
+        // the bucket of previousTicks may still hold entries due before currentTicks
+        int steps = (int) Math.min(1 + (currentTicks - previousTicks), timerWheel.length);
+        int start = (int) (previousTicks & mask);
+        int end = start + steps;
+        for (int i = start; i < end; i++) {
+            LruHashMap.TimedEntry<K, V> sentinel = timerWheel[i & mask];
+            LruHashMap.TimedEntry<K, V> entry = sentinel.nextInTime;
+            sentinel.previousInTime = sentinel;
+            sentinel.nextInTime = sentinel;
+            while (entry != sentinel) {
+                LruHashMap.TimedEntry<K, V> next = entry.nextInTime;
+                entry.previousInTime = null;
+                entry.nextInTime = null;
+                if (entry.expirationTime - nanos > 0)
+                    schedule(entry);
+                else
+                    map.expireEntry(entry);
+                entry = next;
+            }
+        }
+    }
+
+    /**
+     * Adds the entry to the bucket of its expiration time.
+     */
+    void schedule(LruHashMap.TimedEntry<K, V> entry) {
+        LruHashMap.TimedEntry<K, V> sentinel = findBucket(entry.expirationTime);
+        entry.previousInTime = sentinel.previousInTime;
+        entry.nextInTime = sentinel;
+        sentinel.previousInTime.nextInTime = entry;
+        sentinel.previousInTime = entry;
+    }
+
+    /**
+     * Moves the entry to the bucket of its new expiration time.
+     */
+    void reschedule(LruHashMap.TimedEntry<K, V> entry) {
+        deschedule(entry);
+        schedule(entry);
+    }
+
+    /**
+     * Removes the entry from its bucket, if it is scheduled.
+     */
+    void deschedule(LruHashMap.TimedEntry<K, V> entry) {
+        if (entry.nextInTime != null) {
+            entry.nextInTime.previousInTime = entry.previousInTime;
+            entry.previousInTime.nextInTime = entry.nextInTime;
+            entry.nextInTime = null;
+            entry.previousInTime = null;
+        }
+    }
+
+    /**
+     * Unlinks all the entries.
+     */
+    void clear() {
+        for (LruHashMap.TimedEntry<K, V>[] timerWheel : wheel) {
+            for (LruHashMap.TimedEntry<K, V> sentinel : timerWheel) {
+                LruHashMap.TimedEntry<K, V> entry = sentinel.nextInTime;
+                while (entry != sentinel) {
+                    LruHashMap.TimedEntry<K, V> next = entry.nextInTime;
+                    entry.previousInTime = null;
+                    entry.nextInTime = null;
+                    entry = next;
+                }
+                sentinel.previousInTime = sentinel;
+                sentinel.nextInTime = sentinel;
+            }
+        }
+    }
+
+    private LruHashMap.TimedEntry<K, V> findBucket(long time) {
+        long duration = time - nanos;
+        int length = wheel.length - 1;
+        for (int i = 0; i < length; i++) {
+            if (duration < SPANS[i + 1]) {
+                long ticks = time >>> SHIFT[i];
+                int index = (int) (ticks & (wheel[i].length - 1));
+                return wheel[i][index];
+            }
+        }
+        return wheel[length][0];
+    }
+}
@@ -0,0 +1,122 @@
+package one.trifle.commons.collections;
+
+import java.util.Map;
+
+/**
+ * Window TinyLFU: new entries enter a small LRU window; entries leaving the
+ * window join the probation segment of a segmented LRU main region and are
+ * promoted to its protected segment when read again. On eviction the newest
+ * probation entry competes with the oldest one and the less frequently used
+ * of the two, according to a {@link FrequencySketch}, is evicted. A single
+ * pass over cold keys therefore cannot displace a popular working set.
+ * <p>
+ * The regions are sized in entries: the window takes 1% of the maximum size
+ * and the protected segment 80% of the rest.
+ */
+final class TinyLfuPolicy<K, V> implements EvictionPolicy<K, V> {
+    static final byte WINDOW = 0;
+    static final byte PROBATION = 1;
+    static final byte PROTECTED = 2;
+
+    final EntryDeque<K, V> window = new EntryDeque<K, V>();
+    final EntryDeque<K, V> probation = new EntryDeque<K, V>();
+    final EntryDeque<K, V> protect = new EntryDeque<K, V>();
+    final FrequencySketch sketch;
+    private int maxWindow;
+    private int maxProtected;
+
+    TinyLfuPolicy(int maximumSize) {
+        if (maximumSize < 0) throw new IllegalArgumentException();
+        sizeRegions(maximumSize);
+        sketch = new FrequencySketch(maximumSize);
+    }
+
+    private void sizeRegions(int maximumSize) {
+        maxWindow = Math.max(1, maximumSize / 100);
+        maxProtected = (int) (0.8 * (maximumSize - maxWindow));
+    }
+
+    @Override
+    public void onInsert(Map.Entry<K, V> entry) {
+        LruHashMap.PolicyEntry<K, V> e = (LruHashMap.PolicyEntry<K, V>) entry;
+        sketch.increment(e.hash);
+        e.queue = WINDOW;
+        window.linkFirst(e);
+        drainWindow();
+    }
+
+    @Override
+    public void onAccess(Map.Entry<K, V> entry) {
+        LruHashMap.PolicyEntry<K, V> e = (LruHashMap.PolicyEntry<K, V>) entry;
+        sketch.increment(e.hash);
+        switch (e.queue) {
+            case WINDOW:
+                window.moveToFront(e);
+                break;
+            case PROBATION:
+                probation.unlink(e);
+                e.queue = PROTECTED;
+                protect.linkFirst(e);
+                drainProtected();
+                break;
+            default:
+                protect.moveToFront(e);
+        }
+    }
+
+    @Override
+    public void onRemove(Map.Entry<K, V> entry) {
+        LruHashMap.PolicyEntry<K, V> e = (LruHashMap.PolicyEntry<K, V>) entry;
+        queueOf(e).unlink(e);
+    }
+
+    @Override
+    public Map.Entry<K, V> selectVictim() {
+        LruHashMap.Entry<K, V> victim = probation.last != null ? probation.last : protect.last;
+        if (victim == null)
+            return window.last;
+        LruHashMap.Entry<K, V> candidate = probation.first;
+        if (candidate == null || candidate == victim)
+            return victim;
+        return sketch.frequency(candidate.hash) > sketch.frequency(victim.hash) ? victim : candidate;
+    }
+
+    /**
+     * Resizes the regions; the sketch keeps the width it was created with.
+     */
+    @Override
+    public void setMaximumSize(int maximumSize) {
+        sizeRegions(maximumSize);
+        drainWindow();
+        drainProtected();
+    }
+
+    private void drainWindow() {
+        while (window.size > maxWindow) {
+            LruHashMap.PolicyEntry<K, V> candidate = (LruHashMap.PolicyEntry<K, V>) window.last;
+            window.unlink(candidate);
+            candidate.queue = PROBATION;
+            probation.linkFirst(candidate);
+        }
+    }
+
+    private void drainProtected() {
+        while (protect.size > maxProtected) {
+            LruHashMap.PolicyEntry<K, V> demoted = (LruHashMap.PolicyEntry<K, V>) protect.last;
+            protect.unlink(demoted);
+            demoted.queue = PROBATION;
+            probation.linkFirst(demoted);
+        }
+    }
+
+    private EntryDeque<K, V> queueOf(LruHashMap.PolicyEntry<K, V> entry) {
+        switch (entry.queue) {
+            case WINDOW:
+                return window;
+            case PROBATION:
+                return probation;
+            default:
+                return protect;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package one.trifle.commons.collections;
+
+/**
+ * Calculates the weight of an entry of a map bounded by total weight rather
+ * than by the number of entries.
+ * <p>
+ * The weight is calculated once when the value is put into the map and is
+ * cached in the entry, so it must not depend on mutable state of the key or
+ * the value.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public interface Weigher<K, V> {
+    /**
+     * Returns the weight of the entry. There is no unit for weights; the map
+     * only compares their sum against its bound.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the non-negative weight of the entry
+     */
+    int weigh(K key, V value);
+}
@@ -0,0 +1,131 @@
+package one.trifle.commons.collections;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AsyncLruCacheTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void load_on_executor() throws Exception {
+        // INIT
+        AsyncLruCache<Integer, String> cache = new AsyncLruCache<Integer, String>(10, executor);
+        final Thread caller = Thread.currentThread();
+
+        // EXEC
+        CompletableFuture<String> future = cache.get(1, key -> {
+            assertNotSame(Thread.currentThread(), caller);
+            return String.valueOf(key);
+        });
+
+        // CHECK
+        assertEquals(future.get(1, TimeUnit.SECONDS), "1");
+        assertSame(cache.getIfPresent(1), future);
+        assertEquals(cache.size(), 1);
+    }
+
+    @Test
+    public void concurrent_callers_share_future() throws Exception {
+        // INIT
+        AsyncLruCache<Integer, String> cache = new AsyncLruCache<Integer, String>(10, executor);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        CacheLoader<Integer, String> loader = key -> {
+            calls.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return String.valueOf(key);
+        };
+
+        // EXEC
+        CompletableFuture<String> first = cache.get(1, loader);
+        CompletableFuture<String> second = cache.get(1, loader);
+        assertFalse(first.isDone());
+        release.countDown();
+
+        // CHECK
+        assertSame(first, second);
+        assertEquals(second.get(1, TimeUnit.SECONDS), "1");
+        assertEquals(calls.get(), 1);
+    }
+
+    @Test
+    public void failed_future_removed() throws Exception {
+        // INIT
+        AsyncLruCache<Integer, String> cache = new AsyncLruCache<Integer, String>(10, Runnable::run);
+
+        // EXEC
+        CompletableFuture<String> failed = cache.get(1, key -> {
+            throw new IllegalStateException("backend is down");
+        });
+        try {
+            failed.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        // CHECK
+        assertNull(cache.getIfPresent(1));
+        assertEquals(cache.get(1, key -> "ok").get(1, TimeUnit.SECONDS), "ok");
+    }
+
+    @Test
+    public void null_value_removed() throws Exception {
+        // INIT
+        AsyncLruCache<Integer, String> cache = new AsyncLruCache<Integer, String>(10, Runnable::run);
+
+        // EXEC
+        CompletableFuture<String> future = cache.get(1, key -> null);
+
+        // CHECK
+        assertNull(future.get());
+        assertNull(cache.getIfPresent(1));
+    }
+
+    @Test
+    public void rejected_load_fails_future() {
+        // INIT
+        executor.shutdown();
+        AsyncLruCache<Integer, String> cache = new AsyncLruCache<Integer, String>(10, executor);
+
+        // EXEC
+        CompletableFuture<String> future = cache.get(1, String::valueOf);
+
+        // CHECK
+        assertTrue(future.isCompletedExceptionally());
+        assertEquals(cache.size(), 0);
+    }
+
+    @Test
+    public void put_and_invalidate() throws Exception {
+        // INIT
+        AsyncLruCache<Integer, String> cache = new AsyncLruCache<Integer, String>(2, 1, executor);
+
+        // EXEC
+        cache.put(1, CompletableFuture.completedFuture("one"));
+        cache.put(2, CompletableFuture.completedFuture("two"));
+        cache.put(3, CompletableFuture.completedFuture("three"));
+        cache.invalidate(3);
+
+        // CHECK
+        assertNull(cache.getIfPresent(1));
+        assertEquals(cache.getIfPresent(2).get(), "two");
+        assertEquals(cache.size(), 1);
+        cache.invalidateAll();
+        assertEquals(cache.size(), 0);
+    }
+}
@@ -0,0 +1,48 @@
+package one.trifle.commons.collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CacheStatsTest {
+    @Test
+    public void empty() {
+        // INIT
+        CacheStats stats = CacheStats.empty();
+
+        // CHECK
+        assertEquals(stats.requestCount(), 0);
+        assertEquals(stats.hitRate(), 1.0, 0);
+        assertEquals(stats.missRate(), 0.0, 0);
+        assertEquals(stats.averageLoadPenalty(), 0.0, 0);
+    }
+
+    @Test
+    public void derived_values() {
+        // INIT
+        CacheStats stats = new CacheStats(3, 1, 2, 5, 3, 1, 400);
+
+        // CHECK
+        assertEquals(stats.requestCount(), 4);
+        assertEquals(stats.hitRate(), 0.75, 0);
+        assertEquals(stats.missRate(), 0.25, 0);
+        assertEquals(stats.loadCount(), 4);
+        assertEquals(stats.averageLoadPenalty(), 100.0, 0);
+        assertEquals(stats, new CacheStats(3, 1, 2, 5, 3, 1, 400));
+        assertEquals(stats.hashCode(), new CacheStats(3, 1, 2, 5, 3, 1, 400).hashCode());
+    }
+
+    @Test
+    public void saturated_request_count() {
+        // INIT
+        CacheStats stats = new CacheStats(Long.MAX_VALUE, 1, 0, 0, 0, 0, 0);
+
+        // CHECK
+        assertEquals(stats.requestCount(), Long.MAX_VALUE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negative_count() {
+        new CacheStats(-1, 0, 0, 0, 0, 0, 0);
+    }
+}
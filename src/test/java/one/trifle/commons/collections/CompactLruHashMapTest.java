@@ -0,0 +1,178 @@
+package one.trifle.commons.collections;
+
+import org.junit.Test;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompactLruHashMapTest {
+    @Test
+    public void simple_put_and_get() {
+        // INIT
+        Map<Integer, Integer> map = new CompactLruHashMap<Integer, Integer>(10);
+
+        // EXEC
+        assertEquals(map.put(1, 1), null);
+        assertEquals(map.put(4, 4), null);
+        assertEquals(map.put(1, -1), Integer.valueOf(1));
+
+        // CHECK
+        assertEquals(map.size(), 2);
+        assertEquals(map.get(1), Integer.valueOf(-1));
+        assertEquals(map.get(4), Integer.valueOf(4));
+        assertEquals(map.get(3), null);
+    }
+
+    @Test
+    public void remove_old_and_up_read() {
+        // INIT
+        Map<Integer, Integer> map = new CompactLruHashMap<Integer, Integer>(2);
+
+        // EXEC
+        map.put(1, 1);
+        map.put(2, 2);
+        map.get(1);
+        map.put(3, 3);
+        map.get(1);
+        map.put(4, 4);
+
+        // CHECK
+        assertEquals(map.size(), 2);
+        assertEquals(map.get(1), Integer.valueOf(1));
+        assertEquals(map.get(2), null);
+        assertEquals(map.get(3), null);
+        assertEquals(map.get(4), Integer.valueOf(4));
+    }
+
+    @Test
+    public void remove_reuses_slots() {
+        // INIT
+        Map<Integer, Integer> map = new CompactLruHashMap<Integer, Integer>(3);
+        map.put(1, 1);
+        map.put(2, 2);
+        map.put(3, 3);
+
+        // EXEC
+        assertEquals(map.remove(2), Integer.valueOf(2));
+        assertEquals(map.remove(2), null);
+        map.put(4, 4);
+
+        // CHECK
+        assertEquals(map.size(), 3);
+        assertEquals(map.get(1), Integer.valueOf(1));
+        assertEquals(map.get(3), Integer.valueOf(3));
+        assertEquals(map.get(4), Integer.valueOf(4));
+    }
+
+    @Test
+    public void entrySet_in_access_order_with_write_through() {
+        // INIT
+        Map<Integer, Integer> map = new CompactLruHashMap<Integer, Integer>(10);
+        for (int i = 0; i < 6; i++)
+            map.put(i, i);
+        map.get(0);
+
+        // EXEC
+        StringBuilder order = new StringBuilder();
+        Iterator<Map.Entry<Integer, Integer>> iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, Integer> entry = iterator.next();
+            order.append(entry.getKey());
+            if (entry.getKey() % 2 == 0)
+                iterator.remove();
+            else
+                entry.setValue(-entry.getKey());
+        }
+
+        // CHECK
+        assertEquals(order.toString(), "054321");
+        assertEquals(map.size(), 3);
+        assertEquals(map.get(0), null);
+        assertEquals(map.get(5), Integer.valueOf(-5));
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void read_while_iterating() {
+        // INIT
+        Map<Integer, Integer> map = new CompactLruHashMap<Integer, Integer>(10);
+        for (int i = 0; i < 5; i++)
+            map.put(i, i);
+
+        // EXEC
+        for (Map.Entry<Integer, Integer> ignored : map.entrySet())
+            map.get(0);
+    }
+
+    @Test
+    public void containsKey_does_not_promote() {
+        // INIT
+        Map<Integer, Integer> map = new CompactLruHashMap<Integer, Integer>(2);
+        map.put(1, 1);
+        map.put(2, 2);
+
+        // EXEC
+        assertTrue(map.containsKey(1));
+        map.put(3, 3);
+
+        // CHECK
+        assertFalse(map.containsKey(1));
+        assertTrue(map.containsKey(2));
+    }
+
+    @Test
+    public void clear() {
+        // INIT
+        Map<Integer, Integer> map = new CompactLruHashMap<Integer, Integer>(2);
+        map.put(1, 1);
+        map.put(2, 2);
+
+        // EXEC
+        map.clear();
+        map.put(3, 3);
+
+        // CHECK
+        assertEquals(map.size(), 1);
+        assertEquals(map.get(1), null);
+        assertEquals(map.get(3), Integer.valueOf(3));
+    }
+
+    @Test
+    public void matches_reference_lru() {
+        // INIT
+        Map<Integer, Integer> map = new CompactLruHashMap<Integer, Integer>(50);
+        Map<Integer, Integer> reference = new LruHashMap<Integer, Integer>(50);
+        Random random = new Random(7);
+
+        // EXEC
+        for (int i = 0; i < 100000; i++) {
+            int key = random.nextInt(150);
+            int op = random.nextInt(10);
+            if (op < 5)
+                assertEquals(map.put(key, i), reference.put(key, i));
+            else if (op < 9)
+                assertEquals(map.get(key), reference.get(key));
+            else
+                assertEquals(map.remove(key), reference.remove(key));
+        }
+
+        // CHECK
+        assertEquals(map.size(), reference.size());
+    }
+
+    @Test
+    public void zero_size() {
+        // INIT
+        Map<Integer, Integer> map = new CompactLruHashMap<Integer, Integer>(0);
+
+        // EXEC
+        map.put(1, 1);
+
+        // CHECK
+        assertEquals(map.size(), 0);
+        assertEquals(map.get(1), null);
+    }
+}
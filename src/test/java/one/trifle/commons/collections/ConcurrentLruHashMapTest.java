@@ -0,0 +1,321 @@
+package one.trifle.commons.collections;
+
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentLruHashMapTest {
+    @Test
+    public void createEmptyMap() {
+        new ConcurrentLruHashMap<Integer, Integer>(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negative_size() {
+        new ConcurrentLruHashMap<Integer, Integer>(-1);
+    }
+
+    @Test
+    public void simple_put() {
+        // INIT
+        Map<Integer, Integer> map = new ConcurrentLruHashMap<Integer, Integer>(2);
+
+        // EXEC
+        map.put(1, 1);
+        map.put(1, 1);
+        map.put(4, 1);
+        assertEquals(map.size(), 2);
+    }
+
+    @Test
+    public void simple_get() {
+        // INIT
+        Map<Integer, Integer> map = new ConcurrentLruHashMap<Integer, Integer>(10);
+
+        // EXEC
+        map.put(1, 1);
+        map.put(4, 4);
+
+        // CHECK
+        assertEquals(map.get(1), Integer.valueOf(1));
+        assertEquals(map.get(4), Integer.valueOf(4));
+        assertEquals(map.get(3), null);
+        assertEquals(map.size(), 2);
+    }
+
+    @Test
+    public void remove_old_and_up_read() {
+        // INIT
+        Map<Integer, Integer> map = new ConcurrentLruHashMap<Integer, Integer>(2, 1);
+
+        // EXEC
+        map.put(1, 1);
+        map.put(2, 2);
+        map.get(1);
+
+        map.put(3, 3);
+        map.get(1);
+
+        map.put(4, 4);
+        map.get(1);
+
+        map.put(5, 5);
+
+        // CHECK
+        assertEquals(map.get(1), Integer.valueOf(1));
+        assertEquals(map.get(2), null);
+        assertEquals(map.get(3), null);
+        assertEquals(map.get(4), null);
+        assertEquals(map.get(5), Integer.valueOf(5));
+    }
+
+    @Test
+    public void buffered_reads_replayed_on_write() {
+        // INIT
+        Map<Integer, Integer> map = new ConcurrentLruHashMap<Integer, Integer>(2, 1, true);
+
+        // EXEC
+        map.put(1, 1);
+        map.put(2, 2);
+        map.get(1);
+        map.put(3, 3);
+
+        // CHECK
+        assertEquals(map.get(2), null);
+        assertEquals(map.get(1), Integer.valueOf(1));
+        assertEquals(map.get(3), Integer.valueOf(3));
+    }
+
+    @Test
+    public void buffered_reads_drained_by_reader() {
+        // INIT
+        ConcurrentLruHashMap<Integer, Integer> map = new ConcurrentLruHashMap<Integer, Integer>(2, 1, true);
+        map.put(1, 1);
+        map.put(2, 2);
+
+        // EXEC
+        for (int i = 0; i < ConcurrentLruHashMap.READ_BUFFER_DRAIN_THRESHOLD; i++)
+            map.get(1);
+
+        // CHECK
+        ConcurrentLruHashMap.Segment<Integer, Integer> segment = map.segments[0];
+        assertEquals(segment.root.key, Integer.valueOf(1));
+        assertEquals(segment.last.key, Integer.valueOf(2));
+    }
+
+    @Test
+    public void buffered_reads_never_block() throws InterruptedException {
+        // INIT
+        ConcurrentLruHashMap<Integer, Integer> map = new ConcurrentLruHashMap<Integer, Integer>(2, 1, true);
+        map.put(1, 1);
+        map.put(2, 2);
+        final ConcurrentLruHashMap.Segment<Integer, Integer> segment = map.segments[0];
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread owner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                segment.lock();
+                try {
+                    locked.countDown();
+                    release.await();
+                } catch (InterruptedException ignored) {
+                } finally {
+                    segment.unlock();
+                }
+            }
+        });
+        owner.start();
+        locked.await();
+
+        // EXEC
+        for (int i = 0; i < ConcurrentLruHashMap.READ_BUFFER_SIZE * 2; i++)
+            assertEquals(map.get(1), Integer.valueOf(1));
+        assertEquals(segment.last.key, Integer.valueOf(1));
+        release.countDown();
+        owner.join();
+        map.cleanUp();
+
+        // CHECK
+        assertEquals(segment.root.key, Integer.valueOf(1));
+        assertEquals(segment.last.key, Integer.valueOf(2));
+    }
+
+    @Test
+    public void zero_size() {
+        // INIT
+        Map<Integer, Integer> map = new ConcurrentLruHashMap<Integer, Integer>(0);
+
+        // EXEC
+        map.put(1, 1);
+
+        // CHECK
+        assertEquals(map.get(1), null);
+        assertEquals(map.size(), 0);
+    }
+
+    @Test
+    public void bound_split_between_segments() {
+        // INIT
+        ConcurrentLruHashMap<Integer, Integer> map = new ConcurrentLruHashMap<Integer, Integer>(100, 16);
+
+        // EXEC
+        for (int i = 0; i < 10000; i++)
+            map.put(i, i);
+
+        // CHECK
+        assertEquals(map.segments.length, 16);
+        assertEquals(map.maxSize(), 100);
+        assertEquals(map.size(), 100);
+    }
+
+    @Test
+    public void conditional_operations() {
+        // INIT
+        ConcurrentMap<Integer, Integer> map = new ConcurrentLruHashMap<Integer, Integer>(10, 1);
+
+        // EXEC
+        assertEquals(map.putIfAbsent(1, 1), null);
+        assertEquals(map.putIfAbsent(1, 2), Integer.valueOf(1));
+        assertFalse(map.replace(1, 2, 3));
+        assertTrue(map.replace(1, 1, 3));
+        assertEquals(map.replace(2, 1), null);
+        assertEquals(map.replace(1, 4), Integer.valueOf(3));
+        assertFalse(map.remove(1, 3));
+        assertTrue(map.remove(1, 4));
+
+        // CHECK
+        assertTrue(map.isEmpty());
+        assertEquals(map.get(1), null);
+    }
+
+    @Test
+    public void remove_and_clear() {
+        // INIT
+        Map<Integer, Integer> map = new ConcurrentLruHashMap<Integer, Integer>(10, 1);
+        map.put(1, -1);
+        map.put(2, -2);
+        map.put(3, -3);
+
+        // EXEC
+        assertEquals(map.remove(4), null);
+        assertEquals(map.remove(1), Integer.valueOf(-1));
+        assertEquals(map.size(), 2);
+        map.clear();
+
+        // CHECK
+        assertEquals(map.size(), 0);
+        assertEquals(map.get(2), null);
+        assertEquals(map.put(2, -2), null);
+        assertEquals(map.get(2), Integer.valueOf(-2));
+    }
+
+    @Test
+    public void entrySet_write_through_and_remove() {
+        // INIT
+        Map<Integer, Integer> map = new ConcurrentLruHashMap<Integer, Integer>(10, 1);
+        for (int i = 0; i < 6; i++)
+            map.put(i, i);
+
+        // EXEC
+        int counter = 0;
+        Iterator<Map.Entry<Integer, Integer>> iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, Integer> entry = iterator.next();
+            counter++;
+            if (entry.getKey() % 2 == 0)
+                iterator.remove();
+            else
+                entry.setValue(-entry.getKey());
+        }
+
+        // CHECK
+        assertEquals(counter, 6);
+        assertEquals(map.size(), 3);
+        assertEquals(map.get(0), null);
+        assertEquals(map.get(1), Integer.valueOf(-1));
+        assertEquals(map.get(5), Integer.valueOf(-5));
+    }
+
+    @Test
+    public void stats_recorded() {
+        // INIT
+        ConcurrentLruHashMap<Integer, Integer> map = new ConcurrentLruHashMap<Integer, Integer>(2, 1);
+        assertEquals(map.stats(), CacheStats.empty());
+        map.recordStats();
+
+        // EXEC
+        map.put(1, 1);
+        map.put(2, 2);
+        map.get(1);
+        map.get(2);
+        map.put(3, 3);
+        map.get(1);
+        map.containsKey(2);
+
+        // CHECK
+        CacheStats stats = map.stats();
+        assertEquals(stats.hitCount(), 2);
+        assertEquals(stats.missCount(), 1);
+        assertEquals(stats.evictionCount(), 1);
+        assertEquals(stats.evictionWeight(), 1);
+    }
+
+    @Test
+    public void concurrent_put_and_get() throws InterruptedException {
+        concurrent_put_and_get(new ConcurrentLruHashMap<Integer, Integer>(1000, 8));
+    }
+
+    @Test
+    public void concurrent_put_and_buffered_get() throws InterruptedException {
+        concurrent_put_and_get(new ConcurrentLruHashMap<Integer, Integer>(1000, 8, true));
+    }
+
+    private void concurrent_put_and_get(final ConcurrentLruHashMap<Integer, Integer> map) throws InterruptedException {
+        // INIT
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t * 100000;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < 20000; i++) {
+                            map.put(offset + i, i);
+                            Integer value = map.get(offset + i / 2);
+                            if (value != null && value != i / 2)
+                                throw new AssertionError("unexpected value " + value);
+                            if (i % 3 == 0)
+                                map.remove(offset + i);
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+
+        // EXEC
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join();
+
+        // CHECK
+        assertNull(failure.get());
+        assertTrue(map.size() <= 1000);
+        int counter = 0;
+        for (Map.Entry<Integer, Integer> ignored : map.entrySet())
+            counter++;
+        assertEquals(counter, map.size());
+    }
+}
@@ -0,0 +1,161 @@
+package one.trifle.commons.collections;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LfuHashMapTest {
+    @Test
+    public void evicts_least_frequent() {
+        // INIT
+        Map<Integer, Integer> map = new LfuHashMap<Integer, Integer>(3);
+        map.put(1, 1);
+        map.put(2, 2);
+        map.put(3, 3);
+        map.get(1);
+        map.get(1);
+        map.get(3);
+
+        // EXEC
+        map.put(4, 4);
+        map.get(4);
+        map.put(5, 5);
+
+        // CHECK
+        assertEquals(map.size(), 3);
+        assertEquals(map.get(2), null);
+        assertEquals(map.get(3), null);
+        assertEquals(map.get(1), Integer.valueOf(1));
+        assertEquals(map.get(4), Integer.valueOf(4));
+        assertEquals(map.get(5), Integer.valueOf(5));
+    }
+
+    @Test
+    public void ties_broken_by_recency() {
+        // INIT
+        Map<Integer, Integer> map = new LfuHashMap<Integer, Integer>(3);
+        map.put(1, 1);
+        map.put(2, 2);
+        map.put(3, 3);
+        map.get(2);
+        map.get(1);
+
+        // EXEC
+        map.put(4, 4);
+        map.put(5, 5);
+
+        // CHECK
+        assertEquals(map.get(3), null);
+        assertEquals(map.get(4), null);
+        assertEquals(map.get(1), Integer.valueOf(1));
+        assertEquals(map.get(2), Integer.valueOf(2));
+        assertEquals(map.get(5), Integer.valueOf(5));
+    }
+
+    @Test
+    public void update_counts_as_use() {
+        // INIT
+        Map<Integer, Integer> map = new LfuHashMap<Integer, Integer>(2);
+        map.put(1, 1);
+        map.put(2, 2);
+
+        // EXEC
+        map.put(1, -1);
+        map.put(3, 3);
+
+        // CHECK
+        assertEquals(map.get(1), Integer.valueOf(-1));
+        assertEquals(map.get(2), null);
+    }
+
+    @Test
+    public void remove_and_clear() {
+        // INIT
+        Map<Integer, Integer> map = new LfuHashMap<Integer, Integer>(2);
+        map.put(1, 1);
+        map.get(1);
+        map.put(2, 2);
+
+        // EXEC
+        assertEquals(map.remove(1), Integer.valueOf(1));
+        map.put(3, 3);
+        map.clear();
+        map.put(4, 4);
+        map.put(5, 5);
+        map.put(6, 6);
+
+        // CHECK
+        assertEquals(map.size(), 2);
+        assertEquals(map.get(4), null);
+        assertEquals(map.get(6), Integer.valueOf(6));
+    }
+
+    @Test
+    public void old_popularity_decays() {
+        // INIT
+        Map<Integer, Integer> map = new LfuHashMap<Integer, Integer>(2, 4);
+        map.put(1, 1);
+        for (int i = 0; i < 7; i++)
+            map.get(1);
+
+        // EXEC
+        map.put(2, 2);
+        for (int i = 0; i < 3; i++)
+            map.get(2);
+        map.put(3, 3);
+
+        // CHECK
+        assertEquals(map.get(1), null);
+        assertEquals(map.get(2), Integer.valueOf(2));
+        assertEquals(map.get(3), Integer.valueOf(3));
+    }
+
+    @Test
+    public void popularity_kept_without_decay() {
+        // INIT
+        Map<Integer, Integer> map = new LfuHashMap<Integer, Integer>(2);
+        map.put(1, 1);
+        for (int i = 0; i < 7; i++)
+            map.get(1);
+
+        // EXEC
+        map.put(2, 2);
+        for (int i = 0; i < 3; i++)
+            map.get(2);
+        map.put(3, 3);
+
+        // CHECK
+        assertEquals(map.get(1), Integer.valueOf(1));
+        assertEquals(map.get(2), null);
+        assertEquals(map.get(3), Integer.valueOf(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negative_decay_period() {
+        new LfuHashMap<Integer, Integer>(1, -1);
+    }
+
+    @Test
+    public void setMaximumSize_evicts_least_frequent() {
+        // INIT
+        LfuHashMap<String, Integer> map = new LfuHashMap<String, Integer>(3);
+        map.put("a", 1);
+        map.put("b", 2);
+        for (int i = 0; i < 5; i++) {
+            map.get("a");
+            map.get("b");
+        }
+        map.put("c", 3);
+
+        // EXEC
+        map.setMaximumSize(2);
+
+        // CHECK
+        assertEquals(map.size(), 2);
+        assertEquals(map.get("a"), Integer.valueOf(1));
+        assertEquals(map.get("b"), Integer.valueOf(2));
+        assertEquals(map.get("c"), null);
+    }
+}
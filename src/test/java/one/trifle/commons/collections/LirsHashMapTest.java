@@ -0,0 +1,133 @@
+package one.trifle.commons.collections;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LirsHashMapTest {
+    @Test
+    public void simple_put_and_get() {
+        // INIT
+        Map<Integer, Integer> map = new LirsHashMap<Integer, Integer>(3);
+
+        // EXEC
+        map.put(1, 1);
+        map.put(2, 2);
+        map.put(1, -1);
+
+        // CHECK
+        assertEquals(map.size(), 2);
+        assertEquals(map.get(1), Integer.valueOf(-1));
+        assertEquals(map.get(2), Integer.valueOf(2));
+        assertEquals(map.get(3), null);
+    }
+
+    @Test
+    public void bounded_size() {
+        // INIT
+        Map<Integer, Integer> map = new LirsHashMap<Integer, Integer>(100);
+
+        // EXEC
+        for (int i = 0; i < 10000; i++) {
+            map.put(i % 357, i);
+            map.get(i % 13);
+            if (i % 7 == 0)
+                map.remove(i % 101);
+        }
+
+        // CHECK
+        assertTrue(map.size() <= 100);
+        int counter = 0;
+        for (Map.Entry<Integer, Integer> ignored : map.entrySet())
+            counter++;
+        assertEquals(counter, map.size());
+    }
+
+    @Test
+    public void loop_larger_than_map_hits() {
+        // INIT
+        Map<Integer, Integer> lirs = new LirsHashMap<Integer, Integer>(100);
+        Map<Integer, Integer> lru = new LruHashMap<Integer, Integer>(100);
+
+        // EXEC
+        int lirsHits = loop(lirs);
+        int lruHits = loop(lru);
+
+        // CHECK
+        assertEquals(lruHits, 0);
+        assertTrue(lirsHits > 800);
+    }
+
+    @Test
+    public void scan_keeps_working_set() {
+        // INIT
+        Map<Integer, Integer> map = new LirsHashMap<Integer, Integer>(100);
+        for (int round = 0; round < 2; round++)
+            for (int i = 0; i < 50; i++)
+                if (map.get(i) == null)
+                    map.put(i, i);
+
+        // EXEC
+        for (int i = 1000; i < 2000; i++)
+            map.put(i, i);
+
+        // CHECK
+        for (int i = 0; i < 50; i++)
+            assertEquals(map.get(i), Integer.valueOf(i));
+    }
+
+    @Test
+    public void remove_and_clear() {
+        // INIT
+        Map<Integer, Integer> map = new LirsHashMap<Integer, Integer>(2);
+        map.put(1, 1);
+        map.put(2, 2);
+
+        // EXEC
+        assertEquals(map.remove(1), Integer.valueOf(1));
+        map.put(3, 3);
+        map.clear();
+        map.put(4, 4);
+        map.put(5, 5);
+
+        // CHECK
+        assertEquals(map.size(), 2);
+        assertEquals(map.get(4), Integer.valueOf(4));
+        assertEquals(map.get(5), Integer.valueOf(5));
+    }
+
+    private static int loop(Map<Integer, Integer> map) {
+        int hits = 0;
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 110; i++) {
+                if (map.get(i) != null)
+                    hits++;
+                else
+                    map.put(i, i);
+            }
+        }
+        return hits;
+    }
+
+    @Test
+    public void setMaximumSize_shrinks() {
+        // INIT
+        LirsHashMap<Integer, Integer> map = new LirsHashMap<Integer, Integer>(100);
+        for (int i = 0; i < 100; i++)
+            map.put(i, i);
+
+        // EXEC
+        map.setMaximumSize(10);
+        for (int i = 0; i < 1000; i++)
+            map.put(i % 50, i);
+
+        // CHECK
+        assertEquals(map.size(), 10);
+        int count = 0;
+        for (Map.Entry<Integer, Integer> ignored : map.entrySet())
+            count++;
+        assertEquals(count, 10);
+    }
+}
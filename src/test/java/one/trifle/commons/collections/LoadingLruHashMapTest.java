@@ -0,0 +1,289 @@
+package one.trifle.commons.collections;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class LoadingLruHashMapTest {
+    @Test
+    public void load_missing() {
+        // INIT
+        LoadingLruHashMap<Integer, String> map = new LoadingLruHashMap<Integer, String>(10);
+        CountingLoader loader = new CountingLoader(null);
+
+        // EXEC
+        assertEquals(map.get(1, loader), "1");
+        assertEquals(map.get(1, loader), "1");
+        map.put(2, "two");
+
+        // CHECK
+        assertEquals(map.get(2, loader), "two");
+        assertEquals(loader.calls.get(), 1);
+        assertEquals(map.size(), 2);
+    }
+
+    @Test
+    public void load_stats() {
+        // INIT
+        LoadingLruHashMap<Integer, String> map = new LoadingLruHashMap<Integer, String>(10);
+        map.recordStats();
+        CountingLoader loader = new CountingLoader(null);
+
+        // EXEC
+        map.get(1, loader);
+        map.get(1, loader);
+        try {
+            map.get(2, new CacheLoader<Integer, String>() {
+                @Override
+                public String load(Integer key) {
+                    throw new IllegalStateException();
+                }
+            });
+            fail();
+        } catch (IllegalStateException ignored) {
+        }
+
+        // CHECK
+        CacheStats stats = map.stats();
+        assertEquals(stats.hitCount(), 1);
+        assertEquals(stats.missCount(), 2);
+        assertEquals(stats.loadSuccessCount(), 1);
+        assertEquals(stats.loadFailureCount(), 1);
+        assertEquals(stats.loadCount(), 2);
+    }
+
+    @Test
+    public void load_null() {
+        // INIT
+        LoadingLruHashMap<Integer, String> map = new LoadingLruHashMap<Integer, String>(10);
+
+        // EXEC
+        String value = map.get(1, new CacheLoader<Integer, String>() {
+            @Override
+            public String load(Integer key) {
+                return null;
+            }
+        });
+
+        // CHECK
+        assertEquals(value, null);
+        assertEquals(map.size(), 0);
+    }
+
+    @Test
+    public void load_failure_not_cached() {
+        // INIT
+        LoadingLruHashMap<Integer, String> map = new LoadingLruHashMap<Integer, String>(10);
+        final AtomicInteger calls = new AtomicInteger();
+        CacheLoader<Integer, String> loader = new CacheLoader<Integer, String>() {
+            @Override
+            public String load(Integer key) {
+                if (calls.incrementAndGet() == 1)
+                    throw new IllegalStateException("backend is down");
+                return "ok";
+            }
+        };
+
+        // EXEC
+        try {
+            map.get(1, loader);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals(e.getMessage(), "backend is down");
+        }
+
+        // CHECK
+        assertEquals(map.get(1, loader), "ok");
+        assertEquals(calls.get(), 2);
+    }
+
+    @Test
+    public void concurrent_misses_load_once() throws InterruptedException {
+        // INIT
+        final LoadingLruHashMap<Integer, String> map = new LoadingLruHashMap<Integer, String>(10);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountingLoader loader = new CountingLoader(release);
+        final List<String> results = new ArrayList<String>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    String value = map.get(7, loader);
+                    synchronized (results) {
+                        results.add(value);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        // EXEC
+        awaitWaiting(threads);
+        release.countDown();
+        for (Thread thread : threads)
+            thread.join();
+
+        // CHECK
+        assertEquals(loader.calls.get(), 1);
+        assertEquals(results.size(), 8);
+        for (String result : results)
+            assertEquals(result, "7");
+    }
+
+    @Test
+    public void concurrent_misses_share_failure() throws InterruptedException {
+        // INIT
+        final LoadingLruHashMap<Integer, String> map = new LoadingLruHashMap<Integer, String>(10);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final CacheLoader<Integer, String> loader = new CacheLoader<Integer, String>() {
+            @Override
+            public String load(Integer key) {
+                calls.incrementAndGet();
+                awaitUninterruptibly(release);
+                throw new IllegalStateException();
+            }
+        };
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        map.get(7, loader);
+                    } catch (IllegalStateException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        // EXEC
+        awaitWaiting(threads);
+        release.countDown();
+        for (Thread thread : threads)
+            thread.join();
+
+        // CHECK
+        assertEquals(calls.get(), 1);
+        assertEquals(failures.get(), 4);
+        assertEquals(map.size(), 0);
+    }
+
+    @Test(timeout = 5000)
+    public void concurrent_misses_share_checked_failure() throws InterruptedException {
+        // INIT
+        final LoadingLruHashMap<Integer, String> map = new LoadingLruHashMap<Integer, String>(10);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger failures = new AtomicInteger();
+        final CacheLoader<Integer, String> loader = new CacheLoader<Integer, String>() {
+            @Override
+            public String load(Integer key) {
+                awaitUninterruptibly(release);
+                return LoadingLruHashMapTest.<RuntimeException>sneakyThrow(new IOException());
+            }
+        };
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 2; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        map.get(7, loader);
+                    } catch (Exception e) {
+                        if (e instanceof IOException)
+                            failures.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        // EXEC
+        awaitWaiting(threads);
+        release.countDown();
+        for (Thread thread : threads)
+            thread.join();
+
+        // CHECK
+        assertEquals(failures.get(), 2);
+        assertEquals(map.get(7, new CountingLoader(null)), "7");
+    }
+
+    @Test
+    public void load_does_not_block_other_keys() throws InterruptedException {
+        // INIT
+        final LoadingLruHashMap<Integer, String> map = new LoadingLruHashMap<Integer, String>(10, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicReference<String> slow = new AtomicReference<String>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                slow.set(map.get(1, new CountingLoader(release)));
+            }
+        });
+        thread.start();
+        awaitWaiting(Collections.singletonList(thread));
+
+        // EXEC
+        String fast = map.get(2, new CountingLoader(null));
+        map.put(3, "3");
+        release.countDown();
+        thread.join();
+
+        // CHECK
+        assertEquals(fast, "2");
+        assertEquals(slow.get(), "1");
+        assertEquals(map.size(), 3);
+    }
+
+    private static void awaitWaiting(List<Thread> threads) throws InterruptedException {
+        for (Thread thread : threads)
+            while (thread.getState() != Thread.State.WAITING)
+                Thread.sleep(1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable> String sneakyThrow(Throwable failure) throws T {
+        throw (T) failure;
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static class CountingLoader implements CacheLoader<Integer, String> {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final CountDownLatch release;
+
+        private CountingLoader(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public String load(Integer key) {
+            calls.incrementAndGet();
+            if (release != null)
+                awaitUninterruptibly(release);
+            return String.valueOf(key);
+        }
+    }
+}
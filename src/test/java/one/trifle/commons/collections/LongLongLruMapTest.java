@@ -0,0 +1,133 @@
+package one.trifle.commons.collections;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongLongLruMapTest {
+    @Test
+    public void simple_put_and_get() {
+        // INIT
+        LongLongLruMap map = new LongLongLruMap(10);
+
+        // EXEC
+        map.put(1L, 10L);
+        map.put(-1L, -10L);
+        map.put(1L, 11L);
+
+        // CHECK
+        assertEquals(map.size(), 2);
+        assertEquals(map.get(1L, 0), 11L);
+        assertEquals(map.get(-1L, 0), -10L);
+        assertEquals(map.get(2L, -5), -5L);
+        assertTrue(map.containsKey(-1L));
+        assertFalse(map.containsKey(2L));
+    }
+
+    @Test
+    public void remove_old_and_up_read() {
+        // INIT
+        LongLongLruMap map = new LongLongLruMap(2);
+
+        // EXEC
+        map.put(1L, 1L);
+        map.put(2L, 2L);
+        map.get(1L, 0);
+        map.put(3L, 3L);
+        map.get(1L, 0);
+        map.put(4L, 4L);
+
+        // CHECK
+        assertEquals(map.size(), 2);
+        assertEquals(map.get(1L, 0), 1L);
+        assertFalse(map.containsKey(2L));
+        assertFalse(map.containsKey(3L));
+        assertEquals(map.get(4L, 0), 4L);
+    }
+
+    @Test
+    public void counters() {
+        // INIT
+        LongLongLruMap map = new LongLongLruMap(4);
+
+        // EXEC
+        map.addTo(7L, 1);
+        map.addTo(7L, 2);
+        long value = map.addTo(8L, -1);
+
+        // CHECK
+        assertEquals(value, -1L);
+        assertEquals(map.get(7L, 0), 3L);
+    }
+
+    @Test
+    public void remove_and_clear() {
+        // INIT
+        LongLongLruMap map = new LongLongLruMap(3);
+        map.put(1L, 1L);
+        map.put(2L, 2L);
+
+        // EXEC
+        assertTrue(map.remove(1L));
+        assertFalse(map.remove(1L));
+        map.put(3L, 3L);
+        map.put(4L, 4L);
+        map.put(5L, 5L);
+
+        // CHECK
+        assertEquals(map.size(), 3);
+        assertFalse(map.containsKey(2L));
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey(5L));
+        map.put(6L, 6L);
+        assertEquals(map.get(6L, 0), 6L);
+    }
+
+    @Test
+    public void zero_capacity() {
+        // INIT
+        LongLongLruMap map = new LongLongLruMap(0);
+
+        // EXEC
+        map.put(1L, 1L);
+
+        // CHECK
+        assertEquals(map.size(), 0);
+        assertEquals(map.addTo(1L, 5), 5L);
+        assertFalse(map.containsKey(1L));
+    }
+
+    @Test
+    public void matches_reference_lru() {
+        // INIT
+        final int capacity = 64;
+        LongLongLruMap map = new LongLongLruMap(capacity);
+        LruHashMap<Long, Long> reference = new LruHashMap<Long, Long>(capacity);
+        Random random = new Random(42);
+
+        // EXEC
+        for (int i = 0; i < 100000; i++) {
+            long key = random.nextInt(200) * 1024L;
+            int op = random.nextInt(10);
+            if (op < 5) {
+                map.put(key, i);
+                reference.put(key, (long) i);
+            } else if (op < 9) {
+                Long expected = reference.get(key);
+                assertEquals(map.get(key, Long.MIN_VALUE), expected == null ? Long.MIN_VALUE : expected);
+            } else {
+                assertEquals(map.remove(key), reference.remove(key) != null);
+            }
+        }
+
+        // CHECK
+        assertEquals(map.size(), reference.size());
+        for (Map.Entry<Long, Long> entry : new HashMap<Long, Long>(reference).entrySet())
+            assertTrue(map.containsKey(entry.getKey()));
+    }
+}
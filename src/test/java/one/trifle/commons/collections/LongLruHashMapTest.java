@@ -0,0 +1,104 @@
+package one.trifle.commons.collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LongLruHashMapTest {
+    @Test
+    public void simple_put_and_get() {
+        // INIT
+        LongLruHashMap<String> map = new LongLruHashMap<String>(10);
+
+        // EXEC
+        assertEquals(map.put(1L, "a"), null);
+        assertEquals(map.put(Long.MAX_VALUE, "max"), null);
+        assertEquals(map.put(1L, "b"), "a");
+
+        // CHECK
+        assertEquals(map.size(), 2);
+        assertEquals(map.get(1L), "b");
+        assertEquals(map.get(Long.MAX_VALUE), "max");
+        assertEquals(map.get(2L), null);
+        assertTrue(map.containsKey(1L));
+        assertFalse(map.containsKey(-1L));
+    }
+
+    @Test
+    public void colliding_keys() {
+        // INIT
+        LongLruHashMap<String> map = new LongLruHashMap<String>(10);
+        long key = 1L << 32 | 1L;
+
+        // EXEC
+        map.put(0L, "zero");
+        map.put(key ^ 1L << 32, "low");
+        map.put(key, "both");
+
+        // CHECK
+        assertEquals(LongLruHashMap.spread(0L), LongLruHashMap.spread(key));
+        assertEquals(map.get(0L), "zero");
+        assertEquals(map.get(key), "both");
+        assertEquals(map.remove(0L), "zero");
+        assertEquals(map.get(key), "both");
+        assertEquals(map.get(1L), "low");
+    }
+
+    @Test
+    public void remove_old_and_up_read() {
+        // INIT
+        LongLruHashMap<Integer> map = new LongLruHashMap<Integer>(2);
+
+        // EXEC
+        map.put(1L, 1);
+        map.put(2L, 2);
+        map.get(1L);
+        map.put(3L, 3);
+        map.get(1L);
+        map.put(4L, 4);
+
+        // CHECK
+        assertEquals(map.size(), 2);
+        assertEquals(map.get(1L), Integer.valueOf(1));
+        assertEquals(map.get(2L), null);
+        assertEquals(map.get(3L), null);
+        assertEquals(map.get(4L), Integer.valueOf(4));
+    }
+
+    @Test
+    public void remove_and_clear() {
+        // INIT
+        LongLruHashMap<Integer> map = new LongLruHashMap<Integer>(3);
+        map.put(1L, 1);
+        map.put(2L, 2);
+
+        // EXEC
+        assertEquals(map.remove(1L), Integer.valueOf(1));
+        assertEquals(map.remove(1L), null);
+        map.clear();
+
+        // CHECK
+        assertTrue(map.isEmpty());
+        assertEquals(map.get(2L), null);
+        map.put(5L, 5);
+        assertEquals(map.get(5L), Integer.valueOf(5));
+    }
+
+    @Test
+    public void zero_size() {
+        // INIT
+        LongLruHashMap<Integer> map = new LongLruHashMap<Integer>(0);
+
+        // EXEC
+        map.put(1L, 1);
+
+        // CHECK
+        assertEquals(map.size(), 0);
+        assertEquals(map.get(1L), null);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void null_value() {
+        new LongLruHashMap<Integer>(1).put(1L, null);
+    }
+}
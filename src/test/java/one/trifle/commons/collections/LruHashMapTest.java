@@ -2,9 +2,10 @@ package one.trifle.commons.collections;
 
 import org.junit.Test;
 
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -336,6 +337,1340 @@ public class LruHashMapTest {
         assertEquals(map.get(new MyClass(1, 5)), Integer.valueOf(-1));
     }
 
+    @Test
+    public void weighted_remove_old() {
+        // INIT
+        LruHashMap<Integer, String> map = new LruHashMap<Integer, String>(4, 10, new LengthWeigher());
+
+        // EXEC
+        map.put(1, "aaaa");
+        map.put(2, "bbbb");
+        map.get(1);
+        map.put(3, "cccc");
+
+        // CHECK
+        assertEquals(map.size(), 2);
+        assertEquals(map.weightedSize(), 8);
+        assertEquals(map.get(1), "aaaa");
+        assertEquals(map.get(2), null);
+        assertEquals(map.get(3), "cccc");
+    }
+
+    @Test
+    public void weighted_replace_heavier_value() {
+        // INIT
+        LruHashMap<Integer, String> map = new LruHashMap<Integer, String>(4, 10, new LengthWeigher());
+        map.put(1, "a");
+        map.put(2, "b");
+        map.put(3, "c");
+
+        // EXEC
+        assertEquals(map.put(3, "ccccccccc"), "c");
+
+        // CHECK
+        assertEquals(map.size(), 2);
+        assertEquals(map.weightedSize(), 10);
+        assertEquals(map.get(1), null);
+        assertEquals(map.get(2), "b");
+    }
+
+    @Test
+    public void weighted_too_heavy_entry() {
+        // INIT
+        LruHashMap<Integer, String> map = new LruHashMap<Integer, String>(4, 3, new LengthWeigher());
+        map.put(1, "a");
+
+        // EXEC
+        map.put(2, "bbbb");
+
+        // CHECK
+        assertEquals(map.size(), 0);
+        assertEquals(map.weightedSize(), 0);
+    }
+
+    @Test
+    public void weighted_remove_and_clear() {
+        // INIT
+        LruHashMap<Integer, String> map = new LruHashMap<Integer, String>(4, 10, new LengthWeigher());
+        map.put(1, "a");
+        map.put(2, "bb");
+        map.put(3, "ccc");
+
+        // EXEC
+        map.remove(2);
+        assertEquals(map.weightedSize(), 4);
+        map.clear();
+
+        // CHECK
+        assertEquals(map.weightedSize(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void weighted_negative_weight() {
+        // INIT
+        LruHashMap<Integer, String> map = new LruHashMap<Integer, String>(4, 10, new Weigher<Integer, String>() {
+            @Override
+            public int weigh(Integer key, String value) {
+                return -1;
+            }
+        });
+
+        // EXEC
+        map.put(1, "a");
+    }
+
+    @Test
+    public void expire_after_write() {
+        // INIT
+        FakeTicker ticker = new FakeTicker();
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(5);
+        map.setTicker(ticker);
+        map.setExpireAfterWrite(1, TimeUnit.MINUTES);
+
+        // EXEC
+        map.put(1, 1);
+        ticker.advance(30, TimeUnit.SECONDS);
+        map.put(2, 2);
+        assertEquals(map.get(1), Integer.valueOf(1));
+        ticker.advance(31, TimeUnit.SECONDS);
+
+        // CHECK
+        assertEquals(map.get(1), null);
+        assertFalse(map.containsKey(1));
+        assertEquals(map.get(2), Integer.valueOf(2));
+        assertEquals(map.size(), 1);
+    }
+
+    @Test
+    public void expire_reclaimed_by_put() {
+        // INIT
+        FakeTicker ticker = new FakeTicker();
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(100);
+        map.setTicker(ticker);
+        map.setExpireAfterWrite(1, TimeUnit.SECONDS);
+        for (int i = 0; i < 50; i++)
+            map.put(i, i);
+
+        // EXEC
+        ticker.advance(3, TimeUnit.SECONDS);
+        map.put(100, 100);
+
+        // CHECK
+        assertEquals(map.size(), 1);
+        assertEquals(map.get(100), Integer.valueOf(100));
+    }
+
+    @Test
+    public void expire_cascades_through_wheel() {
+        // INIT
+        FakeTicker ticker = new FakeTicker();
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(10);
+        map.setTicker(ticker);
+        map.setExpireAfterWrite(2, TimeUnit.HOURS);
+        map.put(1, 1);
+        map.put(2, 2);
+
+        // EXEC
+        for (int minutes = 0; minutes < 119; minutes++) {
+            ticker.advance(1, TimeUnit.MINUTES);
+            map.cleanUp();
+            assertEquals(map.size(), 2);
+        }
+        ticker.advance(61, TimeUnit.SECONDS);
+        map.cleanUp();
+        ticker.advance(2, TimeUnit.SECONDS);
+        map.cleanUp();
+
+        // CHECK
+        assertEquals(map.size(), 0);
+    }
+
+    @Test
+    public void expire_after_access() {
+        // INIT
+        FakeTicker ticker = new FakeTicker();
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(5);
+        map.setTicker(ticker);
+        map.setExpireAfterAccess(10, TimeUnit.SECONDS);
+        map.put(1, 1);
+        map.put(2, 2);
+
+        // EXEC
+        for (int i = 0; i < 5; i++) {
+            ticker.advance(6, TimeUnit.SECONDS);
+            assertEquals(map.get(1), Integer.valueOf(1));
+        }
+        map.cleanUp();
+
+        // CHECK
+        assertEquals(map.size(), 1);
+        assertEquals(map.get(2), null);
+        ticker.advance(12, TimeUnit.SECONDS);
+        map.cleanUp();
+        assertEquals(map.size(), 0);
+    }
+
+    @Test
+    public void expire_first_deadline_wins() {
+        // INIT
+        FakeTicker ticker = new FakeTicker();
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(5);
+        map.setTicker(ticker);
+        map.setExpireAfterAccess(10, TimeUnit.SECONDS);
+        map.setExpireAfterWrite(15, TimeUnit.SECONDS);
+        map.put(1, 1);
+
+        // EXEC
+        ticker.advance(8, TimeUnit.SECONDS);
+        assertEquals(map.get(1), Integer.valueOf(1));
+        ticker.advance(8, TimeUnit.SECONDS);
+
+        // CHECK
+        assertEquals(map.get(1), null);
+        assertEquals(map.put(1, 2), null);
+        assertEquals(map.put(1, 3), Integer.valueOf(2));
+    }
+
+    @Test
+    public void expire_existing_entries_and_remove() {
+        // INIT
+        FakeTicker ticker = new FakeTicker();
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(5);
+        map.setTicker(ticker);
+        map.put(1, 1);
+        map.put(2, 2);
+        map.put(3, 3);
+
+        // EXEC
+        map.setExpireAfterWrite(1, TimeUnit.SECONDS);
+        assertEquals(map.remove(3), Integer.valueOf(3));
+        ticker.advance(2, TimeUnit.SECONDS);
+
+        // CHECK
+        assertEquals(map.remove(2), null);
+        map.cleanUp();
+        assertEquals(map.size(), 0);
+        map.put(4, 4);
+        map.clear();
+        assertEquals(map.size(), 0);
+    }
+
+    @Test
+    public void expire_existing_entries_keeps_access_order() {
+        // INIT
+        FakeTicker ticker = new FakeTicker();
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(3);
+        map.setTicker(ticker);
+        map.put(1, 1);
+        map.put(2, 2);
+        map.put(3, 3);
+        map.get(1);
+
+        // EXEC
+        map.setExpireAfterWrite(1, TimeUnit.SECONDS);
+        map.put(4, 4);
+
+        // CHECK
+        assertEquals(map.get(2), null);
+        assertEquals(map.get(1), Integer.valueOf(1));
+        assertEquals(map.get(3), Integer.valueOf(3));
+        ticker.advance(2, TimeUnit.SECONDS);
+        assertEquals(map.get(1), null);
+        map.cleanUp();
+        assertEquals(map.size(), 0);
+    }
+
+    @Test
+    public void expire_existing_weighted_and_tree_entries() {
+        // INIT
+        FakeTicker ticker = new FakeTicker();
+        LruHashMap<Integer, String> weighted = new LruHashMap<Integer, String>(4, 10, new LengthWeigher());
+        weighted.setTicker(ticker);
+        weighted.put(1, "aaaa");
+        weighted.put(2, "bb");
+        LruHashMap<CollidingKey, Integer> colliding = new LruHashMap<CollidingKey, Integer>(100);
+        colliding.setTicker(ticker);
+        for (int i = 0; i < 20; i++)
+            colliding.put(new CollidingKey(i), i);
+
+        // EXEC
+        weighted.setExpireAfterWrite(1, TimeUnit.SECONDS);
+        colliding.setExpireAfterWrite(1, TimeUnit.SECONDS);
+
+        // CHECK
+        assertEquals(weighted.weightedSize(), 6);
+        assertEquals(weighted.remove(1), "aaaa");
+        assertEquals(weighted.weightedSize(), 2);
+        assertEquals(colliding.remove(new CollidingKey(5)), Integer.valueOf(5));
+        for (int i = 0; i < 20; i++)
+            assertEquals(colliding.get(new CollidingKey(i)), i == 5 ? null : Integer.valueOf(i));
+        ticker.advance(2, TimeUnit.SECONDS);
+        weighted.cleanUp();
+        colliding.cleanUp();
+        assertEquals(weighted.weightedSize(), 0);
+        assertEquals(colliding.size(), 0);
+    }
+
+    @Test
+    public void expiry_per_entry() {
+        // INIT
+        FakeTicker ticker = new FakeTicker();
+        LruHashMap<String, Long> map = new LruHashMap<String, Long>(5);
+        map.setTicker(ticker);
+        map.setExpiry(new ValueSecondsExpiry());
+
+        // EXEC
+        map.put("token", 5L);
+        map.put("config", TimeUnit.HOURS.toSeconds(3));
+        ticker.advance(6, TimeUnit.SECONDS);
+        map.cleanUp();
+
+        // CHECK
+        assertEquals(map.size(), 1);
+        assertEquals(map.get("token"), null);
+        ticker.advance(2, TimeUnit.HOURS);
+        assertEquals(map.get("config"), Long.valueOf(TimeUnit.HOURS.toSeconds(3)));
+        ticker.advance(1, TimeUnit.HOURS);
+        map.cleanUp();
+        assertEquals(map.size(), 0);
+    }
+
+    @Test
+    public void expiry_update_and_read() {
+        // INIT
+        FakeTicker ticker = new FakeTicker();
+        LruHashMap<String, Long> map = new LruHashMap<String, Long>(5);
+        map.setTicker(ticker);
+        map.setExpiry(new ValueSecondsExpiry());
+        map.put("key", 10L);
+
+        // EXEC
+        ticker.advance(8, TimeUnit.SECONDS);
+        assertEquals(map.get("key"), Long.valueOf(10));
+        assertEquals(map.put("key", 1L), Long.valueOf(10));
+        ticker.advance(1, TimeUnit.SECONDS);
+
+        // CHECK
+        assertEquals(map.get("key"), Long.valueOf(1));
+        ticker.advance(2, TimeUnit.SECONDS);
+        assertEquals(map.get("key"), null);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void expiry_with_fixed_duration() {
+        // INIT
+        LruHashMap<String, Long> map = new LruHashMap<String, Long>(5);
+        map.setExpireAfterWrite(1, TimeUnit.SECONDS);
+
+        // EXEC
+        map.setExpiry(new ValueSecondsExpiry());
+    }
+
+    /**
+     * Entries live for as many seconds as their value, reads don't change
+     * the deadline and updates keep the larger of the deadlines.
+     */
+    private static class ValueSecondsExpiry implements Expiry<String, Long> {
+        @Override
+        public long expireAfterCreate(String key, Long value, long currentTime) {
+            return TimeUnit.SECONDS.toNanos(value);
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Long value, long currentTime, long currentDuration) {
+            return Math.max(currentDuration, TimeUnit.SECONDS.toNanos(value));
+        }
+
+        @Override
+        public long expireAfterRead(String key, Long value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+
+    @Test
+    public void stats_disabled_by_default() {
+        // INIT
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(1);
+
+        // EXEC
+        map.put(1, 1);
+        map.get(1);
+        map.put(2, 2);
+
+        // CHECK
+        assertEquals(map.stats(), CacheStats.empty());
+    }
+
+    @Test
+    public void stats_hits_misses_evictions() {
+        // INIT
+        FakeTicker ticker = new FakeTicker();
+        LruHashMap<Integer, String> map = new LruHashMap<Integer, String>(10, 4, new LengthWeigher());
+        map.setTicker(ticker);
+        map.setExpireAfterWrite(1, TimeUnit.MINUTES);
+        map.recordStats();
+
+        // EXEC
+        map.put(1, "aa");
+        map.put(2, "bb");
+        map.get(1);
+        map.get(3);
+        map.put(3, "ccc");
+        ticker.advance(2, TimeUnit.MINUTES);
+        map.get(3);
+
+        // CHECK
+        CacheStats stats = map.stats();
+        assertEquals(stats.hitCount(), 1);
+        assertEquals(stats.missCount(), 2);
+        assertEquals(stats.hitRate(), 1.0 / 3, 1e-9);
+        assertEquals(stats.evictionCount(), 3);
+        assertEquals(stats.evictionWeight(), 7);
+    }
+
+    @Test
+    public void stats_getAll_loads() {
+        // INIT
+        final FakeTicker ticker = new FakeTicker();
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(10);
+        map.setTicker(ticker);
+        map.recordStats();
+        map.put(1, 1);
+        CacheLoader<Integer, Integer> loader = new CacheLoader<Integer, Integer>() {
+            @Override
+            public Integer load(Integer key) {
+                ticker.advance(5, TimeUnit.MILLISECONDS);
+                if (key < 0)
+                    throw new IllegalStateException();
+                return key;
+            }
+        };
+
+        // EXEC
+        map.getAll(Arrays.asList(1, 2, 3), loader);
+        try {
+            map.getAll(Collections.singletonList(-1), loader);
+            fail();
+        } catch (IllegalStateException ignored) {
+        }
+
+        // CHECK
+        CacheStats stats = map.stats();
+        assertEquals(stats.hitCount(), 1);
+        assertEquals(stats.missCount(), 3);
+        assertEquals(stats.loadSuccessCount(), 1);
+        assertEquals(stats.loadFailureCount(), 1);
+        assertEquals(stats.totalLoadTime(), TimeUnit.MILLISECONDS.toNanos(15));
+    }
+
+    @Test
+    public void removal_listener_causes() {
+        // INIT
+        FakeTicker ticker = new FakeTicker();
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(2);
+        map.setTicker(ticker);
+        map.setExpireAfterWrite(1, TimeUnit.MINUTES);
+        RecordingListener listener = new RecordingListener();
+        map.setRemovalListener(listener);
+
+        // EXEC
+        map.put(1, 1);
+        map.put(1, -1);
+        map.put(2, 2);
+        map.put(3, 3);
+        map.remove(2);
+        ticker.advance(2, TimeUnit.MINUTES);
+        map.cleanUp();
+        map.put(4, 4);
+        map.clear();
+
+        // CHECK
+        assertEquals(listener.removals, Arrays.asList(
+                "1=1 REPLACED", "1=-1 SIZE", "2=2 EXPLICIT", "3=3 EXPIRED", "4=4 EXPLICIT"));
+    }
+
+    @Test
+    public void removal_listener_batched_on_executor() {
+        // INIT
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(1);
+        RecordingListener listener = new RecordingListener();
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        map.setRemovalListener(listener, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+
+        // EXEC
+        for (int i = 0; i < 5; i++)
+            map.put(i, i);
+        assertTrue(listener.removals.isEmpty());
+        tasks.get(0).run();
+
+        // CHECK
+        assertEquals(tasks.size(), 1);
+        assertEquals(listener.removals, Arrays.asList("0=0 SIZE", "1=1 SIZE", "2=2 SIZE", "3=3 SIZE"));
+    }
+
+    @Test
+    public void removal_listener_full_buffer_delivers_on_caller() {
+        // INIT
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(1);
+        RecordingListener listener = new RecordingListener();
+        map.setRemovalListener(listener, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+            }
+        });
+
+        // EXEC
+        for (int i = 0; i <= RemovalNotifier.BUFFER_SIZE + 1; i++)
+            map.put(i, i);
+
+        // CHECK
+        assertEquals(listener.removals, Collections.singletonList(RemovalNotifier.BUFFER_SIZE + "=" + RemovalNotifier.BUFFER_SIZE + " SIZE"));
+    }
+
+    @Test
+    public void removal_listener_rejected_delivers_on_caller() {
+        // INIT
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(1);
+        RecordingListener listener = new RecordingListener();
+        map.setRemovalListener(listener, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+
+        // EXEC
+        map.put(1, 1);
+        map.put(2, 2);
+
+        // CHECK
+        assertEquals(listener.removals, Collections.singletonList("1=1 SIZE"));
+    }
+
+    private static class RecordingListener implements RemovalListener<Integer, Integer> {
+        private final List<String> removals = new ArrayList<String>();
+
+        @Override
+        public void onRemoval(Integer key, Integer value, RemovalCause cause) {
+            removals.add(key + "=" + value + " " + cause);
+        }
+    }
+
+    private static class FakeTicker implements Ticker {
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long duration, TimeUnit unit) {
+            nanos += unit.toNanos(duration);
+        }
+    }
+
+    @Test
+    public void getAll_single_batch_load() {
+        // INIT
+        LruHashMap<Integer, String> map = new LruHashMap<Integer, String>(10);
+        map.put(2, "two");
+        map.put(4, "four");
+        final List<Set<? extends Integer>> batches = new ArrayList<Set<? extends Integer>>();
+        CacheLoader<Integer, String> loader = new CacheLoader<Integer, String>() {
+            @Override
+            public String load(Integer key) {
+                throw new AssertionError();
+            }
+
+            @Override
+            public Map<Integer, String> loadAll(Set<? extends Integer> keys) {
+                batches.add(new HashSet<Integer>(keys));
+                Map<Integer, String> values = new HashMap<Integer, String>();
+                for (Integer key : keys)
+                    if (key != 5)
+                        values.put(key, String.valueOf(key));
+                return values;
+            }
+        };
+
+        // EXEC
+        Map<Integer, String> result = map.getAll(Arrays.asList(1, 2, 3, 2, 4, 5), loader);
+
+        // CHECK
+        assertEquals(batches.size(), 1);
+        assertEquals(batches.get(0), new HashSet<Integer>(Arrays.asList(1, 3, 5)));
+        assertEquals(new ArrayList<Integer>(result.keySet()), Arrays.asList(1, 2, 3, 4));
+        assertEquals(result.get(2), "two");
+        assertEquals(result.get(3), "3");
+        assertEquals(map.size(), 4);
+        assertFalse(map.containsKey(5));
+    }
+
+    @Test
+    public void getAll_hits_without_load() {
+        // INIT
+        LruHashMap<Integer, String> map = new LruHashMap<Integer, String>(3);
+        map.put(1, "one");
+        map.put(2, "two");
+        map.put(3, "three");
+
+        // EXEC
+        Map<Integer, String> result = map.getAll(Arrays.asList(1, 2), new CacheLoader<Integer, String>() {
+            @Override
+            public String load(Integer key) {
+                throw new AssertionError();
+            }
+        });
+        map.put(4, "four");
+
+        // CHECK
+        assertEquals(result.size(), 2);
+        assertEquals(map.get(3), null);
+        assertEquals(map.get(1), "one");
+    }
+
+    @Test
+    public void getAll_evicts_once_per_batch() {
+        // INIT
+        LruHashMap<Integer, String> map = new LruHashMap<Integer, String>(3);
+        map.put(1, "one");
+        map.put(2, "two");
+
+        // EXEC
+        Map<Integer, String> result = map.getAll(Arrays.asList(2, 3, 4, 5), new CacheLoader<Integer, String>() {
+            @Override
+            public String load(Integer key) {
+                return String.valueOf(key);
+            }
+        });
+
+        // CHECK
+        assertEquals(result.size(), 4);
+        assertEquals(map.size(), 3);
+        assertEquals(map.get(1), null);
+        assertEquals(map.get(2), null);
+        assertEquals(map.get(5), "5");
+    }
+
+    @Test
+    public void putAll_batch() {
+        // INIT
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(3);
+        map.put(1, 1);
+        Map<Integer, Integer> batch = new LinkedHashMap<Integer, Integer>();
+        for (int i = 2; i <= 6; i++)
+            batch.put(i, i);
+
+        // EXEC
+        map.putAll(batch);
+
+        // CHECK
+        assertEquals(map.size(), 3);
+        assertEquals(map.get(1), null);
+        assertEquals(map.get(3), null);
+        assertEquals(map.get(4), Integer.valueOf(4));
+        assertEquals(map.get(6), Integer.valueOf(6));
+    }
+
+    @Test(timeout = 3000)
+    public void putAll_batch_larger_than_bound() {
+        // INIT
+        LruHashMap<List<Integer>, Integer> map = new LruHashMap<List<Integer>, Integer>(100);
+        Map<List<Integer>, Integer> batch = new LinkedHashMap<List<Integer>, Integer>();
+        for (int i = 0; i < 500000; i++)
+            batch.put(Collections.singletonList(i), i); // not comparable, so bins are not treeified
+
+        // EXEC
+        map.putAll(batch);
+
+        // CHECK
+        assertEquals(map.size(), 100);
+        assertEquals(map.get(Collections.singletonList(499899)), null);
+        assertEquals(map.get(Collections.singletonList(499900)), Integer.valueOf(499900));
+        assertEquals(map.get(Collections.singletonList(499999)), Integer.valueOf(499999));
+    }
+
+    @Test
+    public void fifo_policy_ignores_reads() {
+        // INIT
+        Map<Integer, Integer> map = new LruHashMap<Integer, Integer>(2, EvictionPolicy.<Integer, Integer>fifo());
+        map.put(1, 1);
+        map.put(2, 2);
+
+        // EXEC
+        map.get(1);
+        map.put(1, -1);
+        map.put(3, 3);
+
+        // CHECK
+        assertEquals(map.size(), 2);
+        assertEquals(map.get(1), null);
+        assertEquals(map.get(2), Integer.valueOf(2));
+        assertEquals(map.get(3), Integer.valueOf(3));
+    }
+
+    @Test
+    public void custom_policy_chooses_victim() {
+        // INIT
+        Map<Integer, Integer> map = new LruHashMap<Integer, Integer>(2, new LargestKeyPolicy());
+        map.put(5, 5);
+        map.put(1, 1);
+
+        // EXEC
+        map.put(3, 3);
+        map.put(2, 2);
+
+        // CHECK
+        assertEquals(map.size(), 2);
+        assertEquals(map.get(1), Integer.valueOf(1));
+        assertEquals(map.get(2), Integer.valueOf(2));
+        assertEquals(map.get(3), null);
+        assertEquals(map.get(5), null);
+    }
+
+    @Test
+    public void custom_policy_sees_removals() {
+        // INIT
+        LargestKeyPolicy policy = new LargestKeyPolicy();
+        Map<Integer, Integer> map = new LruHashMap<Integer, Integer>(3, policy);
+        map.put(1, 1);
+        map.put(2, 2);
+        map.put(3, 3);
+
+        // EXEC
+        map.remove(3);
+        map.put(4, 4);
+        map.clear();
+
+        // CHECK
+        assertTrue(policy.entries.isEmpty());
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void tinyLfu_survives_scan() {
+        // INIT
+        Map<Integer, Integer> map = new LruHashMap<Integer, Integer>(100, EvictionPolicy.<Integer, Integer>tinyLfu(100));
+        for (int i = 0; i < 10; i++)
+            map.put(i, i);
+        for (int round = 0; round < 5; round++)
+            for (int i = 0; i < 10; i++)
+                map.get(i);
+
+        // EXEC
+        for (int i = 1000; i < 2000; i++)
+            map.put(i, i);
+
+        // CHECK
+        assertEquals(map.size(), 100);
+        for (int i = 0; i < 10; i++)
+            assertEquals(map.get(i), Integer.valueOf(i));
+    }
+
+    @Test
+    public void tinyLfu_admits_frequent_candidate() {
+        // INIT
+        Map<Integer, Integer> map = new LruHashMap<Integer, Integer>(2, EvictionPolicy.<Integer, Integer>tinyLfu(2));
+        map.put(1, 1);
+        map.put(2, 2);
+        map.remove(2);
+        for (int i = 0; i < 3; i++)
+            map.put(2, 2);
+
+        // EXEC
+        map.put(3, 3);
+
+        // CHECK
+        assertEquals(map.size(), 2);
+        assertEquals(map.get(1), null);
+        assertEquals(map.get(2), Integer.valueOf(2));
+    }
+
+    @Test
+    public void arc_keeps_frequent_entries() {
+        // INIT
+        Map<Integer, Integer> map = new LruHashMap<Integer, Integer>(4, EvictionPolicy.<Integer, Integer>arc(4));
+        map.put(1, 1);
+        map.put(2, 2);
+        map.get(1);
+        map.get(2);
+
+        // EXEC
+        for (int i = 10; i < 20; i++)
+            map.put(i, i);
+
+        // CHECK
+        assertEquals(map.size(), 4);
+        assertEquals(map.get(1), Integer.valueOf(1));
+        assertEquals(map.get(2), Integer.valueOf(2));
+        assertEquals(map.get(18), Integer.valueOf(18));
+        assertEquals(map.get(19), Integer.valueOf(19));
+    }
+
+    @Test
+    public void arc_adapts_to_ghost_hit() {
+        // INIT
+        ArcPolicy<Integer, Integer> policy = new ArcPolicy<Integer, Integer>(2);
+        Map<Integer, Integer> map = new LruHashMap<Integer, Integer>(2, policy);
+        map.put(1, 1);
+        map.put(2, 2);
+        map.put(3, 3);
+
+        // EXEC
+        map.put(1, 1);
+
+        // CHECK
+        assertEquals(policy.p, 1);
+        assertEquals(map.size(), 2);
+        assertEquals(map.get(1), Integer.valueOf(1));
+        assertEquals(map.get(2), null);
+        assertEquals(map.get(3), Integer.valueOf(3));
+        assertTrue(policy.b1.containsKey(2));
+    }
+
+    @Test
+    public void sieve_spares_visited_entries() {
+        // INIT
+        Map<Integer, Integer> map = new LruHashMap<Integer, Integer>(3, EvictionPolicy.<Integer, Integer>sieve());
+        map.put(1, 1);
+        map.put(2, 2);
+        map.put(3, 3);
+        map.get(1);
+
+        // EXEC
+        map.put(4, 4);
+        map.put(5, 5);
+
+        // CHECK
+        assertEquals(map.size(), 3);
+        assertEquals(map.get(2), null);
+        assertEquals(map.get(3), null);
+        assertEquals(map.get(1), Integer.valueOf(1));
+        assertEquals(map.get(4), Integer.valueOf(4));
+        assertEquals(map.get(5), Integer.valueOf(5));
+    }
+
+    @Test
+    public void sieve_hand_wraps_around() {
+        // INIT
+        SievePolicy<Integer, Integer> policy = new SievePolicy<Integer, Integer>();
+        Map<Integer, Integer> map = new LruHashMap<Integer, Integer>(2, policy);
+        map.put(1, 1);
+        map.put(2, 2);
+        map.get(1);
+        map.get(2);
+
+        // EXEC
+        map.put(3, 3);
+
+        // CHECK
+        assertEquals(map.size(), 2);
+        assertEquals(map.get(1), null);
+        assertEquals(map.get(2), Integer.valueOf(2));
+        assertEquals(policy.hand.key, Integer.valueOf(2));
+    }
+
+    @Test
+    public void greedyDualSize_keeps_expensive_entries() {
+        // INIT
+        Map<Integer, Integer> map = new LruHashMap<Integer, Integer>(2,
+                EvictionPolicy.<Integer, Integer>greedyDualSize(new ValueCoster()));
+        map.put(1, 100);
+        map.put(2, 1);
+
+        // EXEC
+        map.put(3, 5);
+        map.put(4, 5);
+
+        // CHECK
+        assertEquals(map.size(), 2);
+        assertEquals(map.get(1), Integer.valueOf(100));
+        assertEquals(map.get(2), null);
+        assertEquals(map.get(3), null);
+        assertEquals(map.get(4), Integer.valueOf(5));
+    }
+
+    @Test
+    public void greedyDualSize_prefers_small_entries() {
+        // INIT
+        Map<Integer, String> map = new LruHashMap<Integer, String>(10, 10, new LengthWeigher(),
+                EvictionPolicy.<Integer, String>greedyDualSize(new Coster<Integer, String>() {
+                    @Override
+                    public double cost(Integer key, String value) {
+                        return 1;
+                    }
+                }));
+        map.put(1, "a");
+        map.put(2, "bbbbbb");
+        map.put(3, "c");
+
+        // EXEC
+        map.put(4, "ddd");
+
+        // CHECK
+        assertEquals(map.get(2), null);
+        assertEquals(map.get(1), "a");
+        assertEquals(map.get(3), "c");
+        assertEquals(map.get(4), "ddd");
+    }
+
+    @Test
+    public void greedyDualSize_ages_unused_entries() {
+        // INIT
+        GreedyDualSizePolicy<Integer, Integer> policy = new GreedyDualSizePolicy<Integer, Integer>(new ValueCoster());
+        Map<Integer, Integer> map = new LruHashMap<Integer, Integer>(2, policy);
+        map.put(1, 3);
+
+        // EXEC
+        for (int i = 10; i < 20; i++)
+            map.put(i, 1);
+
+        // CHECK
+        assertEquals(map.get(1), null);
+        assertTrue(policy.inflation >= 3);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void null_policy() {
+        new LruHashMap<Integer, Integer>(1, null);
+    }
+
+    @Test
+    public void peek_does_not_promote() {
+        // INIT
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(2);
+        map.recordStats();
+        map.put(1, 1);
+        map.put(2, 2);
+
+        // EXEC
+        assertEquals(map.peek(1), Integer.valueOf(1));
+        assertEquals(map.peek(3), null);
+        map.put(3, 3);
+
+        // CHECK
+        assertEquals(map.peek(1), null);
+        assertEquals(map.peek(2), Integer.valueOf(2));
+        assertEquals(map.stats().requestCount(), 0);
+    }
+
+    @Test
+    public void peek_hides_expired_entry() {
+        // INIT
+        FakeTicker ticker = new FakeTicker();
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(2);
+        map.setTicker(ticker);
+        map.setExpireAfterWrite(1, TimeUnit.SECONDS);
+        map.put(1, 1);
+
+        // EXEC
+        ticker.advance(2, TimeUnit.SECONDS);
+
+        // CHECK
+        assertEquals(map.peek(1), null);
+        assertEquals(map.size(), 1);
+    }
+
+    @Test
+    public void containsKey_without_promotion() {
+        // INIT
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(2);
+        map.setPromoteOnContainsKey(false);
+        map.put(1, 1);
+        map.put(2, 2);
+
+        // EXEC
+        assertTrue(map.containsKey(1));
+        map.put(3, 3);
+
+        // CHECK
+        assertFalse(map.containsKey(1));
+        assertTrue(map.containsKey(2));
+        assertTrue(map.containsKey(3));
+    }
+
+    @Test
+    public void table_grows_with_entries() {
+        // INIT
+        Map<Integer, Integer> map = new LruHashMap<Integer, Integer>(100000);
+
+        // EXEC
+        for (int i = 0; i < 10000; i++)
+            map.put(i, i);
+
+        // CHECK
+        assertEquals(map.size(), 10000);
+        for (int i = 0; i < 10000; i++)
+            assertEquals(map.get(i), Integer.valueOf(i));
+        int count = 0;
+        for (Map.Entry<Integer, Integer> ignored : map.entrySet())
+            count++;
+        assertEquals(count, 10000);
+    }
+
+    @Test
+    public void setMaximumSize_shrinks() {
+        // INIT
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(5);
+        RecordingListener listener = new RecordingListener();
+        map.setRemovalListener(listener);
+        for (int i = 0; i < 5; i++)
+            map.put(i, i);
+        map.get(0);
+
+        // EXEC
+        map.setMaximumSize(2);
+
+        // CHECK
+        assertEquals(map.maxSize(), 2);
+        assertEquals(map.size(), 2);
+        assertEquals(map.get(0), Integer.valueOf(0));
+        assertEquals(map.get(4), Integer.valueOf(4));
+        assertEquals(listener.removals, Arrays.asList("1=1 SIZE", "2=2 SIZE", "3=3 SIZE"));
+    }
+
+    @Test
+    public void setMaximumSize_grows() {
+        // INIT
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(2);
+        map.put(1, 1);
+        map.put(2, 2);
+
+        // EXEC
+        map.setMaximumSize(100);
+        for (int i = 3; i <= 100; i++)
+            map.put(i, i);
+
+        // CHECK
+        assertEquals(map.size(), 100);
+        assertEquals(map.get(1), Integer.valueOf(1));
+        assertEquals(map.get(100), Integer.valueOf(100));
+    }
+
+    @Test
+    public void setMaximumSize_resizes_policy() {
+        // INIT
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(200, EvictionPolicy.<Integer, Integer>tinyLfu(200));
+        for (int i = 0; i < 200; i++)
+            map.put(i, i);
+        for (int i = 0; i < 200; i++)
+            map.get(i);
+
+        // EXEC
+        map.setMaximumSize(10);
+        for (int i = 1000; i < 1100; i++)
+            map.put(i, i);
+
+        // CHECK
+        assertEquals(map.size(), 10);
+    }
+
+    @Test
+    public void setMaximumSize_greedyDualSize_evicts_cheapest() {
+        // INIT
+        LruHashMap<String, Integer> map = new LruHashMap<String, Integer>(3,
+                EvictionPolicy.<String, Integer>greedyDualSize(new Coster<String, Integer>() {
+                    @Override
+                    public double cost(String key, Integer value) {
+                        return value;
+                    }
+                }));
+        map.put("a", 100);
+        map.put("b", 100);
+        map.put("c", 1);
+
+        // EXEC
+        map.setMaximumSize(2);
+
+        // CHECK
+        assertEquals(map.size(), 2);
+        assertEquals(map.get("a"), Integer.valueOf(100));
+        assertEquals(map.get("b"), Integer.valueOf(100));
+        assertEquals(map.get("c"), null);
+    }
+
+    @Test
+    public void setMaximumSize_arc_evicts_from_recency_list() {
+        // INIT
+        ArcPolicy<Integer, Integer> policy = new ArcPolicy<Integer, Integer>(3);
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(3, policy);
+        map.put(1, 1);
+        map.put(2, 2);
+        map.get(1);
+        map.get(2);
+        map.put(3, 3);
+
+        // EXEC
+        map.setMaximumSize(2);
+
+        // CHECK
+        assertEquals(map.size(), 2);
+        assertEquals(map.get(1), Integer.valueOf(1));
+        assertEquals(map.get(2), Integer.valueOf(2));
+        assertEquals(map.get(3), null);
+        assertTrue(policy.b1.containsKey(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setMaximumSize_negative() {
+        new LruHashMap<Integer, Integer>(1).setMaximumSize(-1);
+    }
+
+    @Test
+    public void colliding_strings_are_treeified() {
+        // INIT
+        LruHashMap<String, Integer> map = new LruHashMap<String, Integer>(512);
+        List<String> keys = collidingStrings(10);
+
+        // EXEC
+        for (int i = 0; i < keys.size(); i++)
+            map.put(keys.get(i), i);
+
+        // CHECK
+        assertEquals(map.size(), 512);
+        for (int i = 0; i < 512; i++)
+            assertFalse(map.containsKey(keys.get(i)));
+        for (int i = 512; i < keys.size(); i++)
+            assertEquals(map.get(keys.get(i)), Integer.valueOf(i));
+        for (int i = 512; i < 1000; i++)
+            assertEquals(map.remove(keys.get(i)), Integer.valueOf(i));
+        assertEquals(map.size(), 24);
+        int count = 0;
+        for (Map.Entry<String, Integer> entry : map.entrySet()) {
+            assertEquals(entry.getValue(), Integer.valueOf(keys.indexOf(entry.getKey())));
+            count++;
+        }
+        assertEquals(count, 24);
+    }
+
+    @Test
+    public void colliding_keys_of_mixed_classes() {
+        // INIT
+        LruHashMap<Object, Integer> map = new LruHashMap<Object, Integer>(100);
+        for (int i = 0; i < 20; i++)
+            map.put(new CollidingKey(i), i);
+
+        // EXEC
+        map.put(0L, -1);
+        map.put(new CollidingKey(20), 20);
+
+        // CHECK
+        assertEquals(map.size(), 22);
+        for (int i = 0; i <= 20; i++)
+            assertEquals(map.get(new CollidingKey(i)), Integer.valueOf(i));
+        assertEquals(map.get(0L), Integer.valueOf(-1));
+        assertEquals(map.remove(0L), Integer.valueOf(-1));
+        assertEquals(map.remove(new CollidingKey(5)), Integer.valueOf(5));
+        assertEquals(map.size(), 20);
+    }
+
+    @Test
+    public void colliding_keys_equal_by_compareTo_only() {
+        // INIT
+        LruHashMap<CollidingKey, Integer> map = new LruHashMap<CollidingKey, Integer>(100);
+        for (int i = 0; i < 20; i++)
+            map.put(new CollidingKey(i), i);
+
+        // EXEC
+        map.put(new CollidingKey(5, 1), -5);
+        map.put(new CollidingKey(30, 1), -30);
+        map.put(new CollidingKey(30), 30);
+
+        // CHECK
+        assertEquals(map.size(), 23);
+        for (int i = 0; i < 20; i++)
+            assertEquals(map.get(new CollidingKey(i)), Integer.valueOf(i));
+        assertEquals(map.get(new CollidingKey(5, 1)), Integer.valueOf(-5));
+        assertEquals(map.get(new CollidingKey(30, 1)), Integer.valueOf(-30));
+        assertEquals(map.get(new CollidingKey(30)), Integer.valueOf(30));
+        assertEquals(map.remove(new CollidingKey(5, 1)), Integer.valueOf(-5));
+        assertEquals(map.get(new CollidingKey(5)), Integer.valueOf(5));
+    }
+
+    @Test
+    public void randomized_hash_seed() {
+        // INIT
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(1000);
+
+        // EXEC
+        map.randomizeHashSeed();
+        for (int i = 0; i < 2000; i++)
+            map.put(i, i);
+
+        // CHECK
+        assertEquals(map.size(), 1000);
+        for (int i = 1000; i < 2000; i++)
+            assertEquals(map.get(i), Integer.valueOf(i));
+        assertEquals(map.get(999), null);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void randomized_hash_seed_requires_empty_map() {
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(10);
+        map.put(1, 1);
+        map.randomizeHashSeed();
+    }
+
+    @Test
+    public void access_order_views() {
+        // INIT
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(10);
+        for (int i = 1; i <= 4; i++)
+            map.put(i, i);
+        map.get(2);
+
+        // EXEC
+        List<Integer> ascending = new ArrayList<Integer>();
+        for (Map.Entry<Integer, Integer> entry : map.ascendingEntrySet())
+            ascending.add(entry.getKey());
+        List<Integer> descending = new ArrayList<Integer>();
+        Iterator<Map.Entry<Integer, Integer>> iterator = map.descendingEntrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, Integer> entry = iterator.next();
+            descending.add(entry.getKey());
+            if (entry.getKey() == 4)
+                iterator.remove();
+        }
+
+        // CHECK
+        assertEquals(ascending, Arrays.asList(1, 3, 4, 2));
+        assertEquals(descending, Arrays.asList(2, 4, 3, 1));
+        assertEquals(map.size(), 3);
+        assertEquals(map.get(4), null);
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void read_while_iterating_access_order() {
+        // INIT
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(10);
+        map.put(1, 1);
+        map.put(2, 2);
+
+        // EXEC
+        for (Map.Entry<Integer, Integer> entry : map.entrySet())
+            map.get(entry.getKey());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void access_order_requires_lru_policy() {
+        new LruHashMap<Integer, Integer>(10, EvictionPolicy.<Integer, Integer>fifo()).descendingEntrySet();
+    }
+
+    @Test
+    public void clear_and_reuse() {
+        // INIT
+        LruHashMap<Integer, Integer> map = new LruHashMap<Integer, Integer>(100000);
+        RecordingListener listener = new RecordingListener();
+        map.setRemovalListener(listener);
+        for (int i = 0; i < 10000; i++)
+            map.put(i, i);
+
+        // EXEC
+        for (int round = 0; round < 100; round++) {
+            map.clear();
+            map.put(round, round);
+        }
+
+        // CHECK
+        assertEquals(map.size(), 1);
+        assertEquals(map.get(99), Integer.valueOf(99));
+        assertEquals(map.get(98), null);
+        assertEquals(listener.removals.size(), 10099);
+    }
+
+    /**
+     * Builds 2^n strings of "Aa" and "BB" blocks, which all share one hash code.
+     */
+    private static List<String> collidingStrings(int n) {
+        List<String> strings = new ArrayList<String>();
+        for (int bits = 0; bits < 1 << n; bits++) {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < n; i++)
+                builder.append((bits >>> i & 1) == 0 ? "Aa" : "BB");
+            strings.add(builder.toString());
+        }
+        return strings;
+    }
+
+    /**
+     * A key whose order only looks at the id, while equality also looks at
+     * the variant.
+     */
+    private static class CollidingKey implements Comparable<CollidingKey> {
+        private final int id;
+        private final int variant;
+
+        CollidingKey(int id) {
+            this(id, 0);
+        }
+
+        CollidingKey(int id, int variant) {
+            this.id = id;
+            this.variant = variant;
+        }
+
+        @Override
+        public int compareTo(CollidingKey other) {
+            return id < other.id ? -1 : id == other.id ? 0 : 1;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CollidingKey && ((CollidingKey) o).id == id && ((CollidingKey) o).variant == variant;
+        }
+
+        @Override
+        public int hashCode() {
+            return 0;
+        }
+    }
+
+    private static class LargestKeyPolicy implements EvictionPolicy<Integer, Integer> {
+        private final List<Map.Entry<Integer, Integer>> entries = new ArrayList<Map.Entry<Integer, Integer>>();
+
+        @Override
+        public void onInsert(Map.Entry<Integer, Integer> entry) {
+            entries.add(entry);
+        }
+
+        @Override
+        public void onAccess(Map.Entry<Integer, Integer> entry) {
+        }
+
+        @Override
+        public void onRemove(Map.Entry<Integer, Integer> entry) {
+            entries.remove(entry);
+        }
+
+        @Override
+        public Map.Entry<Integer, Integer> selectVictim() {
+            Map.Entry<Integer, Integer> victim = null;
+            for (Map.Entry<Integer, Integer> entry : entries)
+                if (victim == null || entry.getKey() > victim.getKey())
+                    victim = entry;
+            return victim;
+        }
+    }
+
+    private static class ValueCoster implements Coster<Integer, Integer> {
+        @Override
+        public double cost(Integer key, Integer value) {
+            return value;
+        }
+    }
+
+    private static class LengthWeigher implements Weigher<Integer, String> {
+        @Override
+        public int weigh(Integer key, String value) {
+            return value.length();
+        }
+    }
+
     private static class MyClass {
         private final int val;
         private final int hash;
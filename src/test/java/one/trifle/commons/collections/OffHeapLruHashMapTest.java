@@ -0,0 +1,221 @@
+package one.trifle.commons.collections;
+
+import org.junit.Test;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class OffHeapLruHashMapTest {
+    @Test
+    public void simple_put_and_get() {
+        // INIT
+        Map<String, String> map = newMap(1 << 16, 1 << 12);
+
+        // EXEC
+        assertEquals(map.put("a", "1"), null);
+        assertEquals(map.put("b", "2"), null);
+        assertEquals(map.put("a", "one"), "1");
+
+        // CHECK
+        assertEquals(map.size(), 2);
+        assertEquals(map.get("a"), "one");
+        assertEquals(map.get("b"), "2");
+        assertEquals(map.get("c"), null);
+        assertTrue(map.containsKey("b"));
+        assertFalse(map.containsKey("c"));
+    }
+
+    @Test
+    public void replace_with_larger_value_moves_chunk() {
+        // INIT
+        Map<String, String> map = newMap(1 << 16, 1 << 12);
+        map.put("a", "1");
+
+        // EXEC
+        map.put("a", repeat('x', 500));
+
+        // CHECK
+        assertEquals(map.size(), 1);
+        assertEquals(map.get("a"), repeat('x', 500));
+    }
+
+    @Test
+    public void remove_and_clear() {
+        // INIT
+        Map<String, String> map = newMap(1 << 16, 1 << 12);
+        map.put("a", "1");
+        map.put("b", "2");
+
+        // EXEC
+        assertEquals(map.remove("a"), "1");
+        assertEquals(map.remove("a"), null);
+        assertEquals(map.size(), 1);
+        map.clear();
+
+        // CHECK
+        assertEquals(map.size(), 0);
+        assertEquals(map.get("b"), null);
+        map.put("c", "3");
+        assertEquals(map.get("c"), "3");
+    }
+
+    @Test
+    public void evicts_least_recently_used_of_class() {
+        // INIT
+        OffHeapLruHashMap<String, String> map = newMap(1 << 10, 1 << 10);
+        int chunks = (1 << 10) / OffHeapLruHashMap.MIN_CHUNK_SIZE;
+        for (int i = 0; i < chunks; i++)
+            map.put("k" + i, "v");
+
+        // EXEC
+        map.get("k0");
+        map.put("new", "v");
+
+        // CHECK
+        assertEquals(map.size(), chunks);
+        assertEquals(map.get("k0"), "v");
+        assertEquals(map.get("k1"), null);
+        assertEquals(map.get("new"), "v");
+        assertEquals(map.allocatedMemory(), 1 << 10);
+    }
+
+    @Test
+    public void slab_reassigned_to_new_class() {
+        // INIT
+        OffHeapLruHashMap<String, String> map = newMap(1 << 11, 1 << 10);
+        for (int i = 0; i < 100; i++)
+            map.put("k" + i, "v");
+
+        // EXEC
+        map.put("big", repeat('x', 900));
+
+        // CHECK
+        assertEquals(map.get("big"), repeat('x', 900));
+        assertEquals(map.allocatedMemory(), 1 << 11);
+        assertTrue(map.size() > 1);
+        int counter = 0;
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            assertEquals(map.get(entry.getKey()), entry.getValue());
+            counter++;
+        }
+        assertEquals(counter, map.size());
+    }
+
+    @Test
+    public void entrySet_iterates_and_removes() {
+        // INIT
+        Map<String, String> map = newMap(1 << 16, 1 << 12);
+        Map<String, String> expected = new HashMap<String, String>();
+        for (int i = 0; i < 50; i++) {
+            map.put("k" + i, "v" + i);
+            expected.put("k" + i, "v" + i);
+        }
+
+        // EXEC
+        Map<String, String> seen = new HashMap<String, String>();
+        Iterator<Map.Entry<String, String>> iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, String> entry = iterator.next();
+            seen.put(entry.getKey(), entry.getValue());
+            if (entry.getKey().endsWith("0"))
+                iterator.remove();
+        }
+
+        // CHECK
+        assertEquals(seen, expected);
+        assertEquals(map.size(), 45);
+        assertEquals(map.get("k10"), null);
+        assertEquals(map.get("k11"), "v11");
+    }
+
+    @Test
+    public void many_entries() {
+        // INIT
+        Map<String, String> map = newMap(1 << 20, 1 << 14);
+
+        // EXEC
+        for (int i = 0; i < 20000; i++)
+            map.put("key" + i, "value" + i);
+
+        // CHECK
+        assertTrue(map.size() > 0);
+        assertTrue(map.size() <= (1 << 20) / OffHeapLruHashMap.MIN_CHUNK_SIZE);
+        assertEquals(map.get("key19999"), "value19999");
+        int counter = 0;
+        for (Map.Entry<String, String> ignored : map.entrySet())
+            counter++;
+        assertEquals(counter, map.size());
+    }
+
+    @Test
+    public void index_grows_from_zero_estimate() {
+        // INIT
+        OffHeapLruHashMap<String, String> map = new OffHeapLruHashMap<String, String>(1 << 24, 0,
+                Serializer.string(), Serializer.string(), 1 << 16);
+
+        // EXEC
+        for (int i = 0; i < 50000; i++)
+            map.put("key" + i, "value" + i);
+
+        // CHECK
+        assertEquals(map.size(), 50000);
+        assertTrue(map.indexCapacity() >= 50000 / 0.75);
+        for (int i = 0; i < 50000; i++)
+            assertEquals(map.get("key" + i), "value" + i);
+        int counter = 0;
+        for (Map.Entry<String, String> ignored : map.entrySet())
+            counter++;
+        assertEquals(counter, 50000);
+    }
+
+    @Test
+    public void close_frees_memory() {
+        // INIT
+        OffHeapLruHashMap<String, String> map = newMap(1 << 16, 1 << 12);
+        map.put("a", "1");
+        Iterator<Map.Entry<String, String>> iterator = map.entrySet().iterator();
+
+        // EXEC
+        map.close();
+        map.close();
+
+        // CHECK
+        assertEquals(map.size(), 0);
+        assertEquals(map.allocatedMemory(), 0);
+        try {
+            map.get("a");
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            iterator.next();
+            fail();
+        } catch (ConcurrentModificationException expected) {
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void entry_larger_than_slab() {
+        newMap(1 << 10, 1 << 10).put("a", repeat('x', 1 << 10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void slab_size_not_power_of_two() {
+        new OffHeapLruHashMap<String, String>(1 << 20, 16, Serializer.string(), Serializer.string(), 1000);
+    }
+
+    private static OffHeapLruHashMap<String, String> newMap(long maxMemory, int slabSize) {
+        return new OffHeapLruHashMap<String, String>(maxMemory, 16, Serializer.string(), Serializer.string(), slabSize);
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++)
+            builder.append(c);
+        return builder.toString();
+    }
+}